@@ -53,6 +53,26 @@ import static nhaystack.util.NHaystackConst.NAME_SPACE;
 @NiagaraProperty(name = "timeZoneAliases", type = "BTimeZoneAliasFolder", defaultValue = "new BTimeZoneAliasFolder()")
 @NiagaraProperty(name = "worker", type = "BNHaystackWorker", defaultValue = "new BNHaystackWorker()")
 @NiagaraProperty(name = "watchCount", type = "int", defaultValue = "0", flags = Flags.TRANSIENT | Flags.READONLY)
+/**
+ * Whether to save the open watches to a file, so that they can be
+ * resumed after the station restarts
+ */
+@NiagaraProperty(name = "persistWatches", type = "boolean", defaultValue = "false")
+/**
+ * The most history items that the hisRead cache may hold, across all
+ * the ranges it has cached.  0 turns the cache off
+ */
+@NiagaraProperty(name = "hisCacheSize", type = "int", defaultValue = "0")
+/**
+ * How often to save who last wrote each point to a file, so that it
+ * survives a restart.  0 keeps it in memory only
+ */
+@NiagaraProperty(name = "lastWritePersistInterval", type = "BRelTime", defaultValue = "BRelTime.DEFAULT")
+/**
+ * How often to look for records whose tags have changed, for the
+ * changesSince op.  0 only looks after the cache is rebuilt
+ */
+@NiagaraProperty(name = "changeScanInterval", type = "BRelTime", defaultValue = "BRelTime.DEFAULT")
 @NiagaraProperty(name = "initialized", type = "boolean", defaultValue = "false", flags = Flags.TRANSIENT | Flags.READONLY)
 @NiagaraProperty(name = "initializationDelayTime", type = "BRelTime", defaultValue = "BRelTime.DEFAULT")
 /**
@@ -322,6 +342,158 @@ public class BNHaystackService extends BAbstractService implements BINHaystackWo
     setInt(watchCount, v, null);
   }
 
+////////////////////////////////////////////////////////////////
+// Property "persistWatches"
+////////////////////////////////////////////////////////////////
+
+  /**
+   * Slot for the {@code persistWatches} property.
+   * Whether to save the open watches to a file, so that they can be
+   * resumed after the station restarts
+   *
+   * @see #getPersistWatches
+   * @see #setPersistWatches
+   */
+  public static final Property persistWatches = newProperty(0, false, null);
+
+  /**
+   * Get the {@code persistWatches} property.
+   * Whether to save the open watches to a file, so that they can be
+   * resumed after the station restarts
+   *
+   * @see #persistWatches
+   */
+  public boolean getPersistWatches()
+  {
+    return getBoolean(persistWatches);
+  }
+
+  /**
+   * Set the {@code persistWatches} property.
+   * Whether to save the open watches to a file, so that they can be
+   * resumed after the station restarts
+   *
+   * @see #persistWatches
+   */
+  public void setPersistWatches(boolean v)
+  {
+    setBoolean(persistWatches, v, null);
+  }
+
+////////////////////////////////////////////////////////////////
+// Property "hisCacheSize"
+////////////////////////////////////////////////////////////////
+
+  /**
+   * Slot for the {@code hisCacheSize} property.
+   * The most history items that the hisRead cache may hold, across all
+   * the ranges it has cached.  0 turns the cache off
+   *
+   * @see #getHisCacheSize
+   * @see #setHisCacheSize
+   */
+  public static final Property hisCacheSize = newProperty(0, 0, null);
+
+  /**
+   * Get the {@code hisCacheSize} property.
+   * The most history items that the hisRead cache may hold, across all
+   * the ranges it has cached.  0 turns the cache off
+   *
+   * @see #hisCacheSize
+   */
+  public int getHisCacheSize()
+  {
+    return getInt(hisCacheSize);
+  }
+
+  /**
+   * Set the {@code hisCacheSize} property.
+   * The most history items that the hisRead cache may hold, across all
+   * the ranges it has cached.  0 turns the cache off
+   *
+   * @see #hisCacheSize
+   */
+  public void setHisCacheSize(int v)
+  {
+    setInt(hisCacheSize, v, null);
+  }
+
+////////////////////////////////////////////////////////////////
+// Property "lastWritePersistInterval"
+////////////////////////////////////////////////////////////////
+
+  /**
+   * Slot for the {@code lastWritePersistInterval} property.
+   * How often to save who last wrote each point to a file, so that it
+   * survives a restart.  0 keeps it in memory only
+   *
+   * @see #getLastWritePersistInterval
+   * @see #setLastWritePersistInterval
+   */
+  public static final Property lastWritePersistInterval = newProperty(0, BRelTime.DEFAULT, null);
+
+  /**
+   * Get the {@code lastWritePersistInterval} property.
+   * How often to save who last wrote each point to a file, so that it
+   * survives a restart.  0 keeps it in memory only
+   *
+   * @see #lastWritePersistInterval
+   */
+  public BRelTime getLastWritePersistInterval()
+  {
+    return (BRelTime) get(lastWritePersistInterval);
+  }
+
+  /**
+   * Set the {@code lastWritePersistInterval} property.
+   * How often to save who last wrote each point to a file, so that it
+   * survives a restart.  0 keeps it in memory only
+   *
+   * @see #lastWritePersistInterval
+   */
+  public void setLastWritePersistInterval(BRelTime v)
+  {
+    set(lastWritePersistInterval, v, null);
+  }
+
+////////////////////////////////////////////////////////////////
+// Property "changeScanInterval"
+////////////////////////////////////////////////////////////////
+
+  /**
+   * Slot for the {@code changeScanInterval} property.
+   * How often to look for records whose tags have changed, for the
+   * changesSince op.  0 only looks after the cache is rebuilt
+   *
+   * @see #getChangeScanInterval
+   * @see #setChangeScanInterval
+   */
+  public static final Property changeScanInterval = newProperty(0, BRelTime.DEFAULT, null);
+
+  /**
+   * Get the {@code changeScanInterval} property.
+   * How often to look for records whose tags have changed, for the
+   * changesSince op.  0 only looks after the cache is rebuilt
+   *
+   * @see #changeScanInterval
+   */
+  public BRelTime getChangeScanInterval()
+  {
+    return (BRelTime) get(changeScanInterval);
+  }
+
+  /**
+   * Set the {@code changeScanInterval} property.
+   * How often to look for records whose tags have changed, for the
+   * changesSince op.  0 only looks after the cache is rebuilt
+   *
+   * @see #changeScanInterval
+   */
+  public void setChangeScanInterval(BRelTime v)
+  {
+    set(changeScanInterval, v, null);
+  }
+
 ////////////////////////////////////////////////////////////////
 // Property "initialized"
 ////////////////////////////////////////////////////////////////
@@ -896,6 +1068,15 @@ public class BNHaystackService extends BAbstractService implements BINHaystackWo
   public void serviceStopped()
   {
     LOG.info("NHaystack Service stopped");
+
+    if (server != null)
+    {
+      server.getWatchStore().save();
+      server.getLastWriteStore().save();
+      server.getFoxSessionManager().close();
+      server.getChangeLog().close();
+      server.close();
+    }
   }
 
   @Override
@@ -1043,6 +1224,10 @@ public class BNHaystackService extends BAbstractService implements BINHaystackWo
     getServlet().enableWithMessage(true);
     setInitialized(true);
 
+    getHaystackServer().getLastWriteStore().restore();
+    getHaystackServer().getWatchStore().restore();
+    getHaystackServer().getChangeLog().start();
+
     LOG.info("End initializing NHaystack");
   }
 
@@ -1212,6 +1397,8 @@ public class BNHaystackService extends BAbstractService implements BINHaystackWo
 
     final Cache cache = getHaystackServer().getCache();
     cache.spy(out);
+
+    getHaystackServer().spyWatches(out);
   }
 
 ////////////////////////////////////////////////////////////////
@@ -76,6 +76,17 @@ public class BNHaystackServlet extends BWebServlet
 
         try
         {
+            // watch changes are pushed as server-sent events,
+            // rather than being handled by one of the HOps
+            if (isWatchStream(op.getRequest()))
+            {
+                WatchStream.service(
+                    (NHServer) servlet.db(),
+                    op.getRequest(),
+                    op.getResponse());
+                return;
+            }
+
             servlet.doGet(
 //                new RequestWrapper(op.getRequest()),
                 op.getRequest(),
@@ -108,6 +119,15 @@ public class BNHaystackServlet extends BWebServlet
         }
     }
 
+    private static boolean isWatchStream(HttpServletRequest req)
+    {
+        String path = req.getPathInfo();
+        if (path == null) return false;
+
+        if (path.endsWith("/")) path = path.substring(0, path.length() - 1);
+        return path.substring(path.lastIndexOf('/') + 1).equals(WatchStream.NAME);
+    }
+
 ////////////////////////////////////////////////////////////////
 // RequestWrapper
 ////////////////////////////////////////////////////////////////
@@ -49,6 +49,42 @@ import javax.baja.sys.Type;
   defaultValue = "BAbsTime.DEFAULT",
   flags = Flags.READONLY
 )
+@NiagaraProperty(
+  name = "hisCacheHits",
+  type = "long",
+  defaultValue = "0",
+  flags = Flags.READONLY | Flags.TRANSIENT
+)
+@NiagaraProperty(
+  name = "hisCacheMisses",
+  type = "long",
+  defaultValue = "0",
+  flags = Flags.READONLY | Flags.TRANSIENT
+)
+@NiagaraProperty(
+  name = "hisCacheHitRate",
+  type = "double",
+  defaultValue = "0",
+  flags = Flags.READONLY | Flags.TRANSIENT
+)
+@NiagaraProperty(
+  name = "hisCacheItems",
+  type = "int",
+  defaultValue = "0",
+  flags = Flags.READONLY | Flags.TRANSIENT
+)
+@NiagaraProperty(
+  name = "navCacheHits",
+  type = "long",
+  defaultValue = "0",
+  flags = Flags.READONLY | Flags.TRANSIENT
+)
+@NiagaraProperty(
+  name = "navCacheMisses",
+  type = "long",
+  defaultValue = "0",
+  flags = Flags.READONLY | Flags.TRANSIENT
+)
 public class BNHaystackStats extends BStruct
 {
 /*+ ------------ BEGIN BAJA AUTO GENERATED CODE ------------ +*/
@@ -170,6 +206,144 @@ public class BNHaystackStats extends BStruct
    */
   public void setLastCacheRebuildTime(BAbsTime v) { set(lastCacheRebuildTime, v, null); }
 
+////////////////////////////////////////////////////////////////
+// Property "hisCacheHits"
+////////////////////////////////////////////////////////////////
+  
+  /**
+   * Slot for the {@code hisCacheHits} property.
+   * @see #getHisCacheHits
+   * @see #setHisCacheHits
+   */
+  public static final Property hisCacheHits = newProperty(Flags.READONLY | Flags.TRANSIENT, 0L, null);
+  
+  /**
+   * Get the {@code hisCacheHits} property.
+   * @see #hisCacheHits
+   */
+  public long getHisCacheHits() { return getLong(hisCacheHits); }
+  
+  /**
+   * Set the {@code hisCacheHits} property.
+   * @see #hisCacheHits
+   */
+  public void setHisCacheHits(long v) { setLong(hisCacheHits, v, null); }
+
+////////////////////////////////////////////////////////////////
+// Property "hisCacheMisses"
+////////////////////////////////////////////////////////////////
+  
+  /**
+   * Slot for the {@code hisCacheMisses} property.
+   * @see #getHisCacheMisses
+   * @see #setHisCacheMisses
+   */
+  public static final Property hisCacheMisses = newProperty(Flags.READONLY | Flags.TRANSIENT, 0L, null);
+  
+  /**
+   * Get the {@code hisCacheMisses} property.
+   * @see #hisCacheMisses
+   */
+  public long getHisCacheMisses() { return getLong(hisCacheMisses); }
+  
+  /**
+   * Set the {@code hisCacheMisses} property.
+   * @see #hisCacheMisses
+   */
+  public void setHisCacheMisses(long v) { setLong(hisCacheMisses, v, null); }
+
+////////////////////////////////////////////////////////////////
+// Property "hisCacheHitRate"
+////////////////////////////////////////////////////////////////
+  
+  /**
+   * Slot for the {@code hisCacheHitRate} property.
+   * @see #getHisCacheHitRate
+   * @see #setHisCacheHitRate
+   */
+  public static final Property hisCacheHitRate = newProperty(Flags.READONLY | Flags.TRANSIENT, 0.0, null);
+  
+  /**
+   * Get the {@code hisCacheHitRate} property.
+   * @see #hisCacheHitRate
+   */
+  public double getHisCacheHitRate() { return getDouble(hisCacheHitRate); }
+  
+  /**
+   * Set the {@code hisCacheHitRate} property.
+   * @see #hisCacheHitRate
+   */
+  public void setHisCacheHitRate(double v) { setDouble(hisCacheHitRate, v, null); }
+
+////////////////////////////////////////////////////////////////
+// Property "hisCacheItems"
+////////////////////////////////////////////////////////////////
+  
+  /**
+   * Slot for the {@code hisCacheItems} property.
+   * @see #getHisCacheItems
+   * @see #setHisCacheItems
+   */
+  public static final Property hisCacheItems = newProperty(Flags.READONLY | Flags.TRANSIENT, 0, null);
+  
+  /**
+   * Get the {@code hisCacheItems} property.
+   * @see #hisCacheItems
+   */
+  public int getHisCacheItems() { return getInt(hisCacheItems); }
+  
+  /**
+   * Set the {@code hisCacheItems} property.
+   * @see #hisCacheItems
+   */
+  public void setHisCacheItems(int v) { setInt(hisCacheItems, v, null); }
+
+////////////////////////////////////////////////////////////////
+// Property "navCacheHits"
+////////////////////////////////////////////////////////////////
+  
+  /**
+   * Slot for the {@code navCacheHits} property.
+   * @see #getNavCacheHits
+   * @see #setNavCacheHits
+   */
+  public static final Property navCacheHits = newProperty(Flags.READONLY | Flags.TRANSIENT, 0L, null);
+  
+  /**
+   * Get the {@code navCacheHits} property.
+   * @see #navCacheHits
+   */
+  public long getNavCacheHits() { return getLong(navCacheHits); }
+  
+  /**
+   * Set the {@code navCacheHits} property.
+   * @see #navCacheHits
+   */
+  public void setNavCacheHits(long v) { setLong(navCacheHits, v, null); }
+
+////////////////////////////////////////////////////////////////
+// Property "navCacheMisses"
+////////////////////////////////////////////////////////////////
+  
+  /**
+   * Slot for the {@code navCacheMisses} property.
+   * @see #getNavCacheMisses
+   * @see #setNavCacheMisses
+   */
+  public static final Property navCacheMisses = newProperty(Flags.READONLY | Flags.TRANSIENT, 0L, null);
+  
+  /**
+   * Get the {@code navCacheMisses} property.
+   * @see #navCacheMisses
+   */
+  public long getNavCacheMisses() { return getLong(navCacheMisses); }
+  
+  /**
+   * Set the {@code navCacheMisses} property.
+   * @see #navCacheMisses
+   */
+  public void setNavCacheMisses(long v) { setLong(navCacheMisses, v, null); }
+
 ////////////////////////////////////////////////////////////////
 // Type
 ////////////////////////////////////////////////////////////////
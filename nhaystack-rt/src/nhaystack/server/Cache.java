@@ -75,6 +75,8 @@ class Cache implements NHaystackConst
 
         try
         {
+            generation++;
+
             long t0 = Clock.ticks();
             LOG.info("Begin cache rebuild.");
 
@@ -104,9 +106,13 @@ class Cache implements NHaystackConst
             stats.setNumPoints(numPoints);
             stats.setLastCacheRebuildDuration(lastRebuildDuration);
             stats.setLastCacheRebuildTime(lastRebuildTime);
+
+            // look for the records that the rebuild has changed
+            server.getChangeLog().requestScan();
         }
         finally
         {
+            generation++;
             if (cx != null) ThreadContext.putContext(thread, cx);
         }
     }
@@ -266,6 +272,20 @@ class Cache implements NHaystackConst
         return sepRefToComp.get(id);
     }
 
+    /**
+      * Return the BComponents that are associated with the SepRef ids,
+      * with a null entry for each id that has no BComponent.
+      */
+    synchronized BComponent[] lookupComponentsBySepRef(NHRef[] ids)
+    {
+        if (!initialized) throw new IllegalStateException(NOT_INITIALIZED);
+
+        BComponent[] comps = new BComponent[ids.length];
+        for (int i = 0; i < ids.length; i++)
+            comps[i] = sepRefToComp.get(ids[i]);
+        return comps;
+    }
+
     /**
       * Return the SepRef id that is associate with the component, or null.
       */
@@ -861,6 +881,12 @@ class Cache implements NHaystackConst
 
     boolean initialized() { return initialized; }
 
+    /**
+      * Return a number that changes whenever the cache is rebuilt,
+      * both when the rebuild starts and when it ends.
+      */
+    long generation() { return generation; }
+
 ////////////////////////////////////////////////////////////////
 // attribs
 ////////////////////////////////////////////////////////////////
@@ -877,6 +903,7 @@ class Cache implements NHaystackConst
     private final NHServer server;
     private final ScheduleManager schedMgr;
     private boolean initialized;
+    private volatile long generation;
 
     private Map<RemotePoint, BHistoryConfig> remoteToConfig;
     private Map<RemotePoint, BControlPoint> remoteToPoint;
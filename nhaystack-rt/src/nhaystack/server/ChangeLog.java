@@ -0,0 +1,353 @@
+//
+// Copyright 2026 Project Haystack All Rights Reserved.
+// Licensed under the Academic Free License version 3.0
+//
+// History:
+//   18 Oct 2026  Creation
+//
+package nhaystack.server;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.baja.sys.Clock;
+import org.projecthaystack.HDict;
+import org.projecthaystack.HRef;
+import org.projecthaystack.HVal;
+
+/**
+  * ChangeLog keeps a station-wide change version, and a bounded log of the
+  * records that have been added, updated or removed, so that a client that
+  * mirrors the tag database can ask for what has changed since the version
+  * it last saw instead of reading everything again.
+  * <p>
+  * Niagara does not tell us when the tags, relations or structure of a
+  * component change, so the log is fed by scanning all the records and
+  * comparing a fingerprint of each one with the previous scan.  A scan is
+  * made after every Cache rebuild, and every 'changeScanInterval' when the
+  * service's property is not zero.  Tags that follow the value of a point,
+  * such as curVal, are left out of the fingerprint.
+  * <p>
+  * The version starts from the time the station started, and goes up by
+  * one for each change, so versions keep increasing across restarts.  At
+  * most MAX_CHANGES changes are kept.  A client whose version is older than
+  * the oldest change that is kept, or that comes from before the restart,
+  * must read everything again.  Clients should ask for the version before
+  * they read everything, so that no change falls in between.
+  */
+class ChangeLog
+{
+    ChangeLog(NHServer server)
+    {
+        this.server = server;
+        this.horizon = Clock.millis();
+        this.version = horizon;
+    }
+
+    /**
+      * Start the periodic scans.
+      */
+    void start()
+    {
+        if (started.compareAndSet(false, true))
+            executor.execute(this::tick);
+    }
+
+    /**
+      * Scan the records soon, on the change log's own thread.
+      */
+    void requestScan()
+    {
+        if (pending.compareAndSet(false, true))
+            executor.execute(this::scanQuietly);
+    }
+
+    /**
+      * Stop scanning.
+      */
+    void close()
+    {
+        executor.shutdownNow();
+    }
+
+    /**
+      * Compare all the records with the previous scan, and log the changes.
+      */
+    void scan()
+    {
+        if (!server.getCache().initialized()) return;
+
+        long t0 = Clock.ticks();
+        Map<String, Long> next = new HashMap<>();
+        Iterator<Object> it = server.iterator();
+        while (it.hasNext())
+        {
+            HDict rec = (HDict) it.next();
+            next.put(rec.id().val, fingerprint(rec));
+        }
+
+        int count = apply(next);
+
+        if (LOG.isLoggable(Level.FINE))
+            LOG.fine("ChangeLog scanned " + next.size() + " records, " +
+                count + " changes, in " + (Clock.ticks() - t0) + "ms");
+    }
+
+    /**
+      * Log the differences between the records of the previous
+      * scan and these ones, and return how many there were.
+      * The first scan only remembers the records, and moves the
+      * version on, so that a client that read everything before
+      * then has to read everything again.
+      */
+    synchronized int apply(Map<String, Long> next)
+    {
+        Map<String, Long> prev = records;
+        records = next;
+        if (prev == null)
+        {
+            horizon = ++version;
+            return 0;
+        }
+
+        int count = 0;
+        for (Map.Entry<String, Long> entry : next.entrySet())
+        {
+            Long old = prev.get(entry.getKey());
+            if (old == null)
+            {
+                log(entry.getKey(), ADDED);
+                count++;
+            }
+            else if (!old.equals(entry.getValue()))
+            {
+                log(entry.getKey(), UPDATED);
+                count++;
+            }
+        }
+        for (String id : prev.keySet())
+        {
+            if (!next.containsKey(id))
+            {
+                log(id, REMOVED);
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+      * Return the current version.
+      */
+    synchronized long version()
+    {
+        return version;
+    }
+
+    /**
+      * Return the last change to each record since the version, oldest
+      * first, or null if the log does not go back that far, or the
+      * version is not one this log has handed out.
+      * <p>
+      * A record that was added and then updated is reported as added.
+      */
+    synchronized List<Change> since(long since)
+    {
+        if (records == null || since < horizon || since > version) return null;
+
+        // walk back to the first change after the version
+        ArrayList<Change> newer = new ArrayList<>();
+        Iterator<Change> it = changes.descendingIterator();
+        while (it.hasNext())
+        {
+            Change change = it.next();
+            if (change.version <= since) break;
+            newer.add(change);
+        }
+
+        LinkedHashMap<String, Change> last = new LinkedHashMap<>();
+        for (int i = newer.size() - 1; i >= 0; i--)
+        {
+            Change change = newer.get(i);
+            Change prev = last.remove(change.id);
+            if (prev != null && prev.kind.equals(ADDED) && change.kind.equals(UPDATED))
+                change = new Change(change.id, ADDED, change.version);
+            last.put(change.id, change);
+        }
+        return new ArrayList<>(last.values());
+    }
+
+    /**
+      * Return a fingerprint of the tags of the record, leaving
+      * out the tags that follow the value of a point.  This is the
+      * first 64 bits of the SHA-256 of the sorted tags in Zinc.
+      */
+    static long fingerprint(HDict rec)
+    {
+        ArrayList<String> names = new ArrayList<>();
+        Iterator<Map.Entry<String, HVal>> it = rec.iterator();
+        while (it.hasNext())
+        {
+            String name = it.next().getKey();
+            if (Arrays.binarySearch(VOLATILE_TAGS, name) < 0)
+                names.add(name);
+        }
+        names.sort(null);
+
+        // Zinc escapes newlines, so they can separate the tags
+        MessageDigest digest = sha256();
+        for (String name : names)
+        {
+            String str = name + ':' + rec.get(name).toZinc() + '\n';
+            digest.update(str.getBytes(StandardCharsets.UTF_8));
+        }
+        return ByteBuffer.wrap(digest.digest()).getLong();
+    }
+
+////////////////////////////////////////////////////////////////
+// private
+////////////////////////////////////////////////////////////////
+
+    private static MessageDigest sha256()
+    {
+        try
+        {
+            return MessageDigest.getInstance("SHA-256");
+        }
+        catch (NoSuchAlgorithmException e)
+        {
+            // every Java platform has SHA-256
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private void log(String id, String kind)
+    {
+        changes.addLast(new Change(id, kind, ++version));
+        if (changes.size() > MAX_CHANGES)
+            horizon = changes.removeFirst().version;
+    }
+
+    private void scanQuietly()
+    {
+        pending.set(false);
+        try
+        {
+            scan();
+        }
+        catch (RuntimeException e)
+        {
+            LOG.log(Level.WARNING, "ChangeLog scan failed", e);
+        }
+    }
+
+    /**
+      * Scan every 'changeScanInterval', checking again
+      * now and then while the interval is zero.
+      */
+    private void tick()
+    {
+        long interval = server.getService().getChangeScanInterval().getMillis();
+        if (interval > 0)
+            scanQuietly();
+
+        try
+        {
+            executor.schedule(this::tick, interval > 0 ? interval : IDLE_CHECK, TimeUnit.MILLISECONDS);
+        }
+        catch (RuntimeException e)
+        {
+            // the executor has been shut down
+        }
+    }
+
+////////////////////////////////////////////////////////////////
+// Change
+////////////////////////////////////////////////////////////////
+
+    /**
+      * The change to one record.
+      */
+    static final class Change
+    {
+        Change(String id, String kind, long version)
+        {
+            this.id = id;
+            this.kind = kind;
+            this.version = version;
+        }
+
+        HRef ref()
+        {
+            return HRef.make(id);
+        }
+
+        final String id;
+        final String kind;
+        final long version;
+    }
+
+////////////////////////////////////////////////////////////////
+// Attributes
+////////////////////////////////////////////////////////////////
+
+    static final String ADDED = "added";
+    static final String UPDATED = "updated";
+    static final String REMOVED = "removed";
+
+    private static final Logger LOG = Logger.getLogger("nhaystack");
+
+    // the most changes that are kept
+    static final int MAX_CHANGES = 100000;
+
+    // how often to look at the scan interval again while it is zero
+    private static final long IDLE_CHECK = 60 * 1000L;
+
+    // sorted, for binarySearch
+    private static final String[] VOLATILE_TAGS = {
+        "axStatus",
+        "curErr",
+        "curStatus",
+        "curVal",
+        "writeErr",
+        "writeLevel",
+        "writeStatus",
+        "writeVal"
+    };
+
+    private final NHServer server;
+
+    // the ids and fingerprints of the records at the last scan
+    private Map<String, Long> records;
+
+    private final ArrayDeque<Change> changes = new ArrayDeque<>();
+    private long version;
+
+    // the changes up to this version are no longer in the log
+    private long horizon;
+
+    private final AtomicBoolean started = new AtomicBoolean();
+    private final AtomicBoolean pending = new AtomicBoolean();
+
+    private final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(r ->
+    {
+        Thread thread = new Thread(r, "NHaystack:ChangeLog");
+        thread.setDaemon(true);
+        return thread;
+    });
+}
@@ -0,0 +1,191 @@
+//
+// Copyright 2026 Project Haystack All Rights Reserved.
+// Licensed under the Academic Free License version 3.0
+//
+// History:
+//   18 Oct 2026  Creation
+//
+package nhaystack.server;
+
+import javax.baja.status.BStatusNumeric;
+import javax.baja.status.BStatusValue;
+import javax.baja.sys.BComponent;
+import javax.baja.sys.BValue;
+import org.projecthaystack.HDict;
+import org.projecthaystack.HNum;
+import org.projecthaystack.HVal;
+
+/**
+  * CovFilter decides which changes to a watched point are worth
+  * reporting to a watch.
+  * <p>
+  * A change to a numeric point is ignored unless it moves the value by
+  * more than the deadband away from the value that was last reported.
+  * The deadband is either absolute, or a percentage of the last reported
+  * value.  A status change is always significant.
+  * <p>
+  * A change is not reported until at least minInterval has elapsed since
+  * the last time the point was reported.  The point stays pending in the
+  * meantime, so the latest value is reported once the interval is up.
+  * <p>
+  * A CovFilter made by {@link #make} holds only the options.  Each
+  * watched point gets its own copy from {@link #forPoint}, which also
+  * remembers what was last reported for that point.
+  */
+final class CovFilter
+{
+    private CovFilter(long minInterval, double deadband, boolean percent)
+    {
+        this.minInterval = minInterval;
+        this.deadband = deadband;
+        this.percent = percent;
+    }
+
+    /**
+      * Make a filter from the 'minInterval' and 'deadband' options in
+      * the given dict, falling back to the given defaults for any option
+      * that is missing.  Return null if neither option is in effect.
+      * <p>
+      * minInterval is a duration; a number without a unit is taken as
+      * milliseconds.  deadband is an absolute number, or a percentage if
+      * its unit is '%'.
+      */
+    static CovFilter make(HDict opts, CovFilter defaults)
+    {
+        long minInterval = defaults == null ? 0 : defaults.minInterval;
+        double deadband = defaults == null ? 0 : defaults.deadband;
+        boolean percent = defaults != null && defaults.percent;
+
+        HVal val = opts.get(MIN_INTERVAL, false);
+        if (val instanceof HNum)
+        {
+            HNum num = (HNum) val;
+            minInterval = num.unit == null ? (long) num.val : num.millis();
+        }
+
+        val = opts.get(DEADBAND, false);
+        if (val instanceof HNum)
+        {
+            HNum num = (HNum) val;
+            deadband = Math.abs(num.val);
+            percent = "%".equals(num.unit);
+        }
+
+        if (minInterval <= 0 && deadband <= 0)
+            return null;
+
+        return new CovFilter(Math.max(minInterval, 0), deadband, percent);
+    }
+
+    /**
+      * Return a copy of this filter that tracks the state of one point.
+      */
+    CovFilter forPoint()
+    {
+        return new CovFilter(minInterval, deadband, percent);
+    }
+
+    public String toString()
+    {
+        return "[CovFilter " +
+            "minInterval:" + minInterval + ", " +
+            "deadband:" + deadband + (percent ? "%" : "") + ']';
+    }
+
+////////////////////////////////////////////////////////////////
+// component
+////////////////////////////////////////////////////////////////
+
+    /**
+      * Return whether the current value of the component's 'out'
+      * slot is significantly different from what was last reported.
+      */
+    boolean isSignificant(BComponent comp)
+    {
+        if (deadband <= 0) return true;
+
+        BValue out = comp.get("out");
+        if (!(out instanceof BStatusNumeric)) return true;
+
+        BStatusNumeric num = (BStatusNumeric) out;
+        return isSignificant(num.getValue(), num.getStatus().getBits());
+    }
+
+    /**
+      * Remember the current value of the component's
+      * 'out' slot as having been reported at the given time.
+      */
+    void reported(BComponent comp, long ticks)
+    {
+        BValue out = comp.get("out");
+        if (out instanceof BStatusNumeric)
+        {
+            BStatusNumeric num = (BStatusNumeric) out;
+            reported(num.getValue(), num.getStatus().getBits(), ticks);
+        }
+        else if (out instanceof BStatusValue)
+        {
+            reported(Double.NaN, ((BStatusValue) out).getStatus().getBits(), ticks);
+        }
+        else
+        {
+            reported(Double.NaN, 0, ticks);
+        }
+    }
+
+////////////////////////////////////////////////////////////////
+// state
+////////////////////////////////////////////////////////////////
+
+    /**
+      * Return whether the value and status differ enough from
+      * what was last reported to be worth reporting.
+      */
+    synchronized boolean isSignificant(double value, int statusBits)
+    {
+        if (!hasReported) return true;
+        if (statusBits != lastStatusBits) return true;
+        if (deadband <= 0) return true;
+        if (Double.isNaN(value) || Double.isNaN(lastValue)) return true;
+
+        double band = percent ? Math.abs(lastValue) * deadband / 100.0 : deadband;
+        return Math.abs(value - lastValue) > band;
+    }
+
+    /**
+      * Return the number of millis until the point may be
+      * reported again, or 0 if it may be reported now.
+      */
+    synchronized long delay(long ticks)
+    {
+        if (!hasReported || minInterval <= 0) return 0;
+        return Math.max(0, lastTicks + minInterval - ticks);
+    }
+
+    /**
+      * Remember that the given value and status were reported at the given time.
+      */
+    synchronized void reported(double value, int statusBits, long ticks)
+    {
+        this.hasReported = true;
+        this.lastValue = value;
+        this.lastStatusBits = statusBits;
+        this.lastTicks = ticks;
+    }
+
+////////////////////////////////////////////////////////////////
+// Attributes
+////////////////////////////////////////////////////////////////
+
+    static final String MIN_INTERVAL = "minInterval";
+    static final String DEADBAND = "deadband";
+
+    final long minInterval;
+    final double deadband;
+    final boolean percent;
+
+    private boolean hasReported;
+    private double lastValue = Double.NaN;
+    private int lastStatusBits;
+    private long lastTicks;
+}
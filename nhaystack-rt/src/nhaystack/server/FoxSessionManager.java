@@ -8,44 +8,166 @@
 //
 package nhaystack.server;
 
-import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.Map;
-import java.util.Timer;
-import java.util.TimerTask;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Consumer;
+import java.util.logging.Level;
 import java.util.logging.Logger;
+import javax.baja.control.BControlPoint;
 import javax.baja.driver.BDevice;
 import javax.baja.fox.BFoxProxySession;
 import javax.baja.naming.BHost;
 import javax.baja.naming.BOrd;
 import javax.baja.security.BIUserCredentials;
+import javax.baja.sys.Clock;
 import com.tridium.fox.sys.BFoxClientConnection;
 import com.tridium.nd.BNiagaraStation;
 
+/**
+  * FoxSessionManager keeps the fox sessions to the remote stations that
+  * remote points are written through.
+  * <p>
+  * Each station has its own pool entry, which holds one session (fox
+  * multiplexes everything over one connection) and the remote points
+  * that have been resolved over it, so that a write does not have to
+  * resolve and lease its point again.  Sessions to different stations are
+  * opened independently of each other.  A keepalive task closes sessions
+  * that have been idle for the lease interval, and drops sessions that
+  * have been disconnected, so the next use opens a fresh one.
+  * <p>
+  * Writes are queued per station and run on a thread of their own, so
+  * writes to different stations overlap, while the writes to one station
+  * are still made in the order they were given.  Callers wait at most
+  * writeTimeout() for a write, so that a station that hangs does not hold
+  * up the servlet threads.
+  */
 class FoxSessionManager
 {
+    FoxSessionManager()
+    {
+        keepalive.scheduleWithFixedDelay(
+            this::keepalive, KEEPALIVE_INTERVAL, KEEPALIVE_INTERVAL, TimeUnit.MILLISECONDS);
+    }
+
     /**
       * getSession
       */
     BFoxProxySession getSession(BDevice station, long leaseInterval) throws Exception
     {
-        synchronized(sessions)
+        return pool(station).session(station, leaseInterval).proxy;
+    }
+
+    /**
+      * Return the remote point at the slot path in the station, leased
+      * for the lease interval.  Points that have been resolved before are
+      * served from the session's cache.
+      */
+    BControlPoint resolvePoint(BDevice station, String slotPath, long leaseInterval) throws Exception
+    {
+        StationPool pool = pool(station);
+        FoxSession fs = pool.session(station, leaseInterval);
+        try
         {
-            String slotPath = station.getSlotPath().toString();
-            FoxSession fs = sessions.get(slotPath);
+            return fs.resolve(slotPath);
+        }
+        catch (Exception e)
+        {
+            pool.failed(fs, e);
+            throw e;
+        }
+    }
 
-            if (fs == null)
+    /**
+      * Queue a write to the remote point at the slot path in the station.
+      * The write is handed the resolved point on the station's own thread,
+      * after any writes to the station that were queued before it.
+      */
+    CompletableFuture<Void> submitWrite(
+        BDevice station, String slotPath, long leaseInterval, Consumer<BControlPoint> write)
+    {
+        StationPool pool = pool(station);
+        return CompletableFuture.runAsync(() ->
+        {
+            try
             {
-                fs = new FoxSession(slotPath, makeSession(station), leaseInterval);
-                fs.proxy.connect();
-                sessions.put(slotPath, fs);
-                LOG.info("opened FoxSession for " + slotPath);
+                write.accept(resolvePoint(station, slotPath, leaseInterval));
+            }
+            catch (RuntimeException e)
+            {
+                throw e;
+            }
+            catch (Exception e)
+            {
+                throw new CompletionException(e);
             }
+        }, pool.writer);
+    }
 
-            fs.scheduleTimeout();
-            return fs.proxy;
+    /**
+      * Queue a write like submitWrite(), and wait for it to be made,
+      * for at most writeTimeout().
+      */
+    void write(BDevice station, String slotPath, long leaseInterval, Consumer<BControlPoint> write)
+        throws Exception
+    {
+        long timeout = writeTimeout(leaseInterval);
+        try
+        {
+            submitWrite(station, slotPath, leaseInterval, write).get(timeout, TimeUnit.MILLISECONDS);
+        }
+        catch (ExecutionException e)
+        {
+            throw unwrap(e);
+        }
+        catch (TimeoutException e)
+        {
+            throw new TimeoutException("Timed out after " + timeout + "ms writing to " + slotPath);
         }
     }
 
+    /**
+      * Return how long to wait for a write to be made.
+      */
+    static long writeTimeout(long leaseInterval)
+    {
+        return Math.max(leaseInterval, MIN_WRITE_TIMEOUT);
+    }
+
+    /**
+      * Return the exception that a queued write failed with.
+      */
+    static Exception unwrap(Throwable e)
+    {
+        while ((e instanceof CompletionException || e instanceof ExecutionException) && e.getCause() != null)
+            e = e.getCause();
+        return e instanceof Exception ? (Exception) e : new RuntimeException(e);
+    }
+
+    /**
+      * Close all the sessions, and stop the keepalive task.
+      */
+    void close()
+    {
+        closed = true;
+        keepalive.shutdownNow();
+        for (StationPool pool : pools.values())
+        {
+            pool.writer.shutdown();
+            pool.close();
+        }
+        pools.clear();
+    }
+
     /**
       * makeSession
       */
@@ -63,47 +185,198 @@ class FoxSessionManager
         return BFoxProxySession.make(host, port, false, creds);
     }
 
+    private StationPool pool(BDevice station)
+    {
+        if (closed) throw new IllegalStateException("FoxSessionManager is closed");
+        return pools.computeIfAbsent(station.getSlotPath().toString(), StationPool::new);
+    }
+
     /**
-      * FoxSession
+      * Close the idle sessions, and drop the ones that have been disconnected.
+      */
+    private void keepalive()
+    {
+        try
+        {
+            long now = Clock.ticks();
+            for (StationPool pool : pools.values())
+                pool.check(now);
+        }
+        catch (RuntimeException e)
+        {
+            LOG.log(Level.SEVERE, "fox keepalive failed", e);
+        }
+    }
+
+////////////////////////////////////////////////////////////////
+// StationPool
+////////////////////////////////////////////////////////////////
+
+    /**
+      * The session to one station, and the queue of writes to it.
       */
-    class FoxSession
+    private static final class StationPool
     {
-        FoxSession(
-            String slotPath,
-            BFoxProxySession proxy,
-            long leaseInterval)
+        StationPool(String slotPath)
         {
             this.slotPath = slotPath;
-            this.proxy = proxy;
-            this.leaseInterval = leaseInterval;
+
+            // one thread, which goes away while there is nothing to write
+            ThreadPoolExecutor executor = new ThreadPoolExecutor(
+                1, 1, WRITER_IDLE_TIME, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<>(), r ->
+                {
+                    Thread thread = new Thread(r, "NHaystack:Fox:" + slotPath);
+                    thread.setDaemon(true);
+                    return thread;
+                });
+            executor.allowCoreThreadTimeOut(true);
+            this.writer = executor;
         }
 
-        void scheduleTimeout()
+        /**
+          * Return the open session, opening a new one if need be.
+          */
+        synchronized FoxSession session(BDevice station, long leaseInterval) throws Exception
         {
-            if (timeout != null) timeout.cancel();
-            timer.schedule(timeout = new Timeout(), leaseInterval);
+            if (session != null && !session.proxy.isConnected())
+                close();
+
+            if (session == null)
+            {
+                FoxSession fs = new FoxSession(makeSession(station), leaseInterval);
+                fs.proxy.connect();
+                session = fs;
+                LOG.info("opened FoxSession for " + slotPath);
+            }
+
+            session.lastUsed = Clock.ticks();
+            return session;
+        }
+
+        /**
+          * Drop the session if something went wrong with it, so that
+          * the next use opens a new one.
+          */
+        synchronized void failed(FoxSession fs, Exception e)
+        {
+            if (session == fs && !fs.proxy.isConnected())
+            {
+                LOG.warning("FoxSession for " + slotPath + " lost: " + e);
+                close();
+            }
+        }
+
+        synchronized void check(long now)
+        {
+            if (session == null) return;
+
+            if (!session.proxy.isConnected())
+            {
+                LOG.info("FoxSession for " + slotPath + " was disconnected");
+                close();
+            }
+            else if (now - session.lastUsed >= session.leaseInterval)
+            {
+                close();
+            }
         }
 
-        class Timeout extends TimerTask
+        synchronized void close()
         {
-            @Override
-            public void run()
+            if (session == null) return;
+
+            LOG.info("closed FoxSession for " + slotPath);
+            try
             {
-                synchronized(sessions)
+                session.proxy.disconnect();
+            }
+            catch (RuntimeException e)
+            {
+                LOG.fine("cannot disconnect FoxSession for " + slotPath + ": " + e);
+            }
+            session = null;
+        }
+
+        final String slotPath;
+        final ThreadPoolExecutor writer;
+        private FoxSession session;
+    }
+
+////////////////////////////////////////////////////////////////
+// FoxSession
+////////////////////////////////////////////////////////////////
+
+    /**
+      * FoxSession
+      */
+    private static final class FoxSession
+    {
+        FoxSession(BFoxProxySession proxy, long leaseInterval)
+        {
+            this.proxy = proxy;
+            this.leaseInterval = leaseInterval;
+        }
+
+        /**
+          * Return the remote point at the slot path, resolving it if it
+          * has not been resolved yet, or has gone away since.  The lease
+          * is only renewed once half of it has run out.
+          */
+        synchronized BControlPoint resolve(String slotPath)
+        {
+            long now = Clock.ticks();
+
+            ResolvedPoint rp = points.get(slotPath);
+            if (rp == null || !rp.point.isMounted())
+            {
+                BControlPoint point = (BControlPoint) BOrd.make("station:|" + slotPath).get(proxy);
+                rp = new ResolvedPoint(point);
+                points.put(slotPath, rp);
+            }
+
+            if (now - rp.leased >= leaseInterval / 2)
+            {
+                try
                 {
-                    LOG.info("closed FoxSession for " + slotPath);
-                    proxy.disconnect();
-                    sessions.remove(slotPath);
+                    rp.point.lease(1, leaseInterval);
                 }
+                catch (RuntimeException e)
+                {
+                    points.remove(slotPath);
+                    throw e;
+                }
+                rp.leased = now;
             }
+
+            return rp.point;
         }
 
-        final String slotPath;
         final BFoxProxySession proxy;
         final long leaseInterval;
+        volatile long lastUsed;
 
-        final Timer timer = new Timer();
-        Timeout timeout;
+        // access ordered, so the least recently used point is dropped first
+        private final Map<String, ResolvedPoint> points =
+            new LinkedHashMap<String, ResolvedPoint>(16, 0.75f, true)
+            {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, ResolvedPoint> eldest)
+                {
+                    return size() > MAX_POINTS;
+                }
+            };
+    }
+
+    private static final class ResolvedPoint
+    {
+        ResolvedPoint(BControlPoint point)
+        {
+            this.point = point;
+            this.leased = Long.MIN_VALUE / 2;
+        }
+
+        final BControlPoint point;
+        long leased;
     }
 
 ////////////////////////////////////////////////////////////////
@@ -111,5 +384,26 @@ class FoxSessionManager
 ////////////////////////////////////////////////////////////////
 
     private static final Logger LOG = Logger.getLogger("nhaystack.fox");
-    private final Map<String, FoxSession> sessions = new HashMap<>();
+
+    // check the sessions this often
+    private static final long KEEPALIVE_INTERVAL = 10 * 1000L;
+
+    // let a station's write thread go after this long without writes
+    private static final long WRITER_IDLE_TIME = 60 * 1000L;
+
+    // resolved points kept per session
+    private static final int MAX_POINTS = 1000;
+
+    // wait at least this long for a write
+    private static final long MIN_WRITE_TIMEOUT = 10 * 1000L;
+
+    private final Map<String, StationPool> pools = new ConcurrentHashMap<>();
+    private volatile boolean closed;
+
+    private final ScheduledExecutorService keepalive = Executors.newSingleThreadScheduledExecutor(r ->
+    {
+        Thread thread = new Thread(r, "NHaystack:FoxKeepalive");
+        thread.setDaemon(true);
+        return thread;
+    });
 }
@@ -0,0 +1,443 @@
+//
+// Copyright 2026 Project Haystack All Rights Reserved.
+// Licensed under the Academic Free License version 3.0
+//
+// History:
+//   18 Oct 2026  Creation
+//
+package nhaystack.server;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.baja.collection.BITable;
+import javax.baja.collection.TableCursor;
+import javax.baja.history.BBooleanTrendRecord;
+import javax.baja.history.BHistoryConfig;
+import javax.baja.history.BHistoryId;
+import javax.baja.history.BHistoryRecord;
+import javax.baja.history.BIHistory;
+import javax.baja.history.BNumericTrendRecord;
+import javax.baja.history.HistorySpaceConnection;
+import javax.baja.sys.BAbsTime;
+import javax.baja.sys.BBoolean;
+import javax.baja.sys.BNumber;
+import javax.baja.sys.Clock;
+import javax.baja.sys.Type;
+import org.projecthaystack.HBool;
+import org.projecthaystack.HDateTime;
+import org.projecthaystack.HDateTimeRange;
+import org.projecthaystack.HNum;
+import org.projecthaystack.HStr;
+import org.projecthaystack.HTimeZone;
+
+/**
+  * HisCache keeps the results of recent hisReads of numeric and boolean
+  * histories, so that the same range can be answered again without
+  * going back to the history database.  This is aimed at dashboards,
+  * where many clients ask for the same 'today' or 'yesterday' over and
+  * over.
+  * <p>
+  * There is one entry per history, which holds the items of the span of
+  * time that has been read so far in a long[] of timestamps and a double[]
+  * of values.  A read of a range inside the span is served from it.  A
+  * range that goes past the end of the span extends it by reading just
+  * the records after its last item, so that a sliding window such as the
+  * last hour keeps hitting the same entry.  A range that starts before
+  * the span reads the whole of the wider span again, unless the items
+  * already cached suggest that the wider span holds more than the cache
+  * does, in which case just the range is read.  While the span is still
+  * open, the records after its last item are also read from the history
+  * and appended, at most once every REFRESH_INTERVAL.
+  * <p>
+  * No entry may hold more than the service's 'hisCacheSize' items.  A
+  * read that would go past that, or that the cached items suggest would,
+  * is not served by the cache, and the entry is dropped, so that the
+  * caller reads the history directly, streaming the items.
+  * <p>
+  * Our own hisWrite drops the entry of the history it writes.  Records
+  * that are inserted before the last cached item, changed or deleted by
+  * anything else are not seen until the entry is read again from scratch,
+  * which happens once it is older than MAX_AGE, so that is how stale the
+  * cache may be.
+  * <p>
+  * The cache holds at most the service's 'hisCacheSize' items in all,
+  * evicting the least recently used entries first.  A size of 0 turns it
+  * off.  The hits and misses are reported in BNHaystackStats by
+  * updateStats(), which the server calls periodically.
+  */
+class HisCache
+{
+    HisCache(BNHaystackService service)
+    {
+        this.service = service;
+    }
+
+    /**
+      * Return whether reads of the history can be served by the cache.
+      */
+    boolean isCacheable(BHistoryConfig cfg)
+    {
+        if (service.getHisCacheSize() <= 0)
+        {
+            if (items > 0) clear();
+            return false;
+        }
+
+        Type recType = cfg.getRecordType().getResolvedType();
+        return recType.is(BNumericTrendRecord.TYPE) || recType.is(BBooleanTrendRecord.TYPE);
+    }
+
+    /**
+      * Read the history items in the range, which are exclusive of
+      * start and inclusive of end time, into the sink.  Return false,
+      * without adding anything to the sink, if the range holds too many
+      * items to be cached, so that the history must be read directly.
+      */
+    boolean read(BHistoryConfig cfg, HDateTimeRange range, HStr unit, HisSink sink)
+    {
+        BHistoryId id = cfg.getId();
+        long start = range.start.millis();
+        long end = range.end.millis();
+
+        Entry entry;
+        synchronized (this)
+        {
+            entry = entries.get(id);
+            if (entry == null)
+            {
+                entry = new Entry(cfg.getRecordType().getResolvedType().is(BBooleanTrendRecord.TYPE));
+                entries.put(id, entry);
+            }
+        }
+
+        // snapshot the arrays, which are only ever appended to
+        // or replaced, never changed in place
+        long[] ts;
+        double[] vals;
+        int size;
+        boolean hit = true;
+        boolean cached = true;
+        int max = service.getHisCacheSize();
+        synchronized (entry)
+        {
+            long now = Clock.millis();
+            if (entry.loaded && estimate(entry, start, end) > max)
+            {
+                cached = false;
+            }
+            else if (!entry.loaded || start < entry.start || now - entry.loadedAt >= MAX_AGE)
+            {
+                // read the whole span, widened to take in the range,
+                // unless the wider span looks to be too big to cache
+                long spanStart = start;
+                long spanEnd = end;
+                if (entry.loaded)
+                {
+                    long wideStart = Math.min(start, entry.start);
+                    long wideEnd = Math.max(end, entry.end);
+                    if (estimate(entry, wideStart, wideEnd) <= max)
+                    {
+                        spanStart = wideStart;
+                        spanEnd = wideEnd;
+                    }
+                }
+                entry.reset();
+                cached = load(cfg, entry, spanStart, spanEnd, max);
+                entry.start = spanStart;
+                entry.end = spanEnd;
+                entry.loaded = true;
+                entry.loadedAt = now;
+                hit = false;
+            }
+            else if (end > entry.end)
+            {
+                cached = load(cfg, entry, entry.last(), end, max);
+                entry.end = end;
+                hit = false;
+            }
+            else if (needsRefresh(entry))
+            {
+                cached = load(cfg, entry, entry.last(), entry.end, max);
+            }
+
+            if (!cached)
+            {
+                entry.reset();
+                entry.loaded = false;
+            }
+
+            ts = entry.ts;
+            vals = entry.vals;
+            size = entry.size;
+        }
+
+        if (!cached)
+        {
+            drop(id, entry);
+            misses.incrementAndGet();
+            return false;
+        }
+        grew(id, entry, size);
+
+        (hit ? hits : misses).incrementAndGet();
+
+        HTimeZone tz = range.start.tz;
+        for (int i = countUpTo(ts, size, start), n = countUpTo(ts, size, end); i < n; i++)
+        {
+            HDateTime dt = HDateTime.make(ts[i], tz);
+            if (entry.bool)
+                sink.add(dt, HBool.make(vals[i] != 0));
+            else
+                sink.add(dt, unit == null ? HNum.make(vals[i]) : HNum.make(vals[i], unit.val));
+        }
+        return true;
+    }
+
+    /**
+      * Drop the entry for the history, since it has been written to.
+      */
+    synchronized void invalidate(BHistoryId id)
+    {
+        Entry entry = entries.remove(id);
+        if (entry != null) items -= entry.counted;
+    }
+
+    synchronized void clear()
+    {
+        entries.clear();
+        items = 0;
+    }
+
+    /**
+      * Report the hits and misses in BNHaystackStats, setting
+      * only the properties that have changed.
+      */
+    void updateStats()
+    {
+        long h = hits.get();
+        long m = misses.get();
+        int n = (int) items;
+
+        BNHaystackStats stats = service.getStats();
+        if (stats.getHisCacheHits() != h) stats.setHisCacheHits(h);
+        if (stats.getHisCacheMisses() != m) stats.setHisCacheMisses(m);
+        if (h + m > 0 && stats.getHisCacheHitRate() != 100.0 * h / (h + m))
+            stats.setHisCacheHitRate(100.0 * h / (h + m));
+        if (stats.getHisCacheItems() != n) stats.setHisCacheItems(n);
+    }
+
+////////////////////////////////////////////////////////////////
+// private
+////////////////////////////////////////////////////////////////
+
+    /**
+      * Return how many of the timestamps are no later than t.
+      */
+    private static int countUpTo(long[] ts, int size, long t)
+    {
+        int i = Arrays.binarySearch(ts, 0, size, t);
+        if (i < 0) return -i - 1;
+
+        // step past equal timestamps
+        while (i < size && ts[i] == t) i++;
+        return i;
+    }
+
+    /**
+      * Estimate how many items there are between from and to, going
+      * by how densely the items of the entry's span are spread.
+      */
+    private static long estimate(Entry entry, long from, long to)
+    {
+        if (entry.size == 0 || entry.end <= entry.start) return 0;
+        return (long) ((double) entry.size / (entry.end - entry.start) * (to - from));
+    }
+
+    private boolean needsRefresh(Entry entry)
+    {
+        // a span that ended a while before the entry
+        // was last read from the history is complete
+        if (entry.end < entry.refreshed - SETTLE_TIME)
+            return false;
+
+        return Clock.millis() - entry.refreshed >= REFRESH_INTERVAL;
+    }
+
+    /**
+      * Append the records of the history that come after 'from'
+      * and no later than 'to' to the entry.  Stop, and return false,
+      * if that would take the entry past 'max' items.
+      */
+    private boolean load(BHistoryConfig cfg, Entry entry, long from, long to, int max)
+    {
+        entry.refreshed = Clock.millis();
+
+        BAbsTime start = BAbsTime.make(from, cfg.getTimeZone());
+        BAbsTime end = BAbsTime.make(to, cfg.getTimeZone());
+
+        int count = 0;
+        try (HistorySpaceConnection conn = service.getHistoryDb().getConnection(null))
+        {
+            BIHistory history = conn.getHistory(cfg.getId());
+
+            // NOTE: timeQuery() is inclusive of both start and end
+            BITable<BHistoryRecord> table = conn.timeQuery(history, start, end);
+            try (TableCursor<BHistoryRecord> cursor = table.cursor())
+            {
+                while (cursor.next())
+                {
+                    BHistoryRecord rec = cursor.get();
+                    long millis = ((BAbsTime) rec.get("timestamp")).getMillis();
+                    if (millis <= from) continue;
+
+                    if (entry.size >= max)
+                    {
+                        if (LOG.isLoggable(Level.FINE))
+                            LOG.fine("HisCache " + cfg.getId() + " " + BAbsTime.make(from) + ".." +
+                                BAbsTime.make(to) + " has more than " + max + " items, not caching it");
+                        return false;
+                    }
+
+                    double val = entry.bool ?
+                        (((BBoolean) rec.get("value")).getBoolean() ? 1 : 0) :
+                        ((BNumber) rec.get("value")).getDouble();
+                    entry.add(millis, val);
+                    count++;
+                }
+            }
+        }
+
+        if (LOG.isLoggable(Level.FINE))
+            LOG.fine("HisCache " + cfg.getId() + " " + BAbsTime.make(from) + ".." +
+                BAbsTime.make(to) + " loaded " + count + " items");
+        return true;
+    }
+
+    /**
+      * Drop an entry that has become too big to cache.
+      */
+    private synchronized void drop(BHistoryId id, Entry entry)
+    {
+        if (entries.get(id) == entry)
+        {
+            entries.remove(id);
+            items -= entry.counted;
+        }
+    }
+
+    /**
+      * Account for the items of an entry that has been read, and
+      * evict the least recently used entries if need be.
+      */
+    private synchronized void grew(BHistoryId id, Entry entry, int size)
+    {
+        // unless it has been evicted meanwhile; the size
+        // may also have gone down if the span was read again
+        if (entries.get(id) == entry && size != entry.counted)
+        {
+            items += size - entry.counted;
+            entry.counted = size;
+        }
+
+        int max = service.getHisCacheSize();
+        for (Iterator<Entry> it = entries.values().iterator(); items > max && it.hasNext(); )
+        {
+            Entry e = it.next();
+            items -= e.counted;
+            it.remove();
+        }
+    }
+
+////////////////////////////////////////////////////////////////
+// Entry
+////////////////////////////////////////////////////////////////
+
+    /**
+      * The cached items of one span of one history.
+      */
+    private static final class Entry
+    {
+        Entry(boolean bool)
+        {
+            this.bool = bool;
+        }
+
+        /**
+          * Start again with no items, leaving the
+          * old arrays to the readers that have them.
+          */
+        void reset()
+        {
+            ts = new long[64];
+            vals = new double[64];
+            size = 0;
+        }
+
+        /**
+          * Return the timestamp of the last item, or the start of the span.
+          */
+        long last()
+        {
+            return size > 0 ? ts[size - 1] : start;
+        }
+
+        void add(long t, double v)
+        {
+            if (size == ts.length)
+            {
+                // copy rather than grow in place, so that
+                // readers can keep using the old arrays
+                ts = Arrays.copyOf(ts, size * 2);
+                vals = Arrays.copyOf(vals, size * 2);
+            }
+            ts[size] = t;
+            vals[size] = v;
+            size++;
+        }
+
+        final boolean bool;
+
+        boolean loaded;
+        long loadedAt;
+        long refreshed;
+
+        // the span of time that has been read, exclusive of start
+        long start;
+        long end;
+
+        // how many of the items are accounted for in HisCache.items
+        int counted;
+
+        long[] ts = new long[64];
+        double[] vals = new double[64];
+        int size;
+    }
+
+////////////////////////////////////////////////////////////////
+// Attributes
+////////////////////////////////////////////////////////////////
+
+    private static final Logger LOG = Logger.getLogger("nhaystack");
+
+    // read the tail of an open range at most this often
+    private static final long REFRESH_INTERVAL = 1000L;
+
+    // records may be appended a little after their timestamp
+    private static final long SETTLE_TIME = 60 * 60 * 1000L;
+
+    // read an entry again from scratch once it is this old
+    private static final long MAX_AGE = 5 * 60 * 1000L;
+
+    private final BNHaystackService service;
+
+    // access ordered, so iteration starts with the least recently used
+    private final LinkedHashMap<BHistoryId, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private volatile long items;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+}
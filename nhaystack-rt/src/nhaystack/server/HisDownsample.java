@@ -0,0 +1,324 @@
+//
+// Copyright 2026 Project Haystack All Rights Reserved.
+// Licensed under the Academic Free License version 3.0
+//
+// History:
+//   18 Oct 2026  Creation
+//
+package nhaystack.server;
+
+import java.util.Arrays;
+import org.projecthaystack.HDateTime;
+import org.projecthaystack.HDateTimeRange;
+import org.projecthaystack.HDict;
+import org.projecthaystack.HNum;
+import org.projecthaystack.HTimeZone;
+import org.projecthaystack.HVal;
+
+/**
+  * HisDownsample thins out a numeric history read to at most 'maxPoints'
+  * items as it is read, while keeping the shape of the line it draws.
+  * <p>
+  * The range is cut into equal time buckets.  With the default 'lttb'
+  * method (Largest-Triangle-Three-Buckets) one item is picked from each
+  * bucket, the one that forms the largest triangle with the item picked
+  * from the bucket before and the average of the bucket after; the first
+  * and the last item are always kept.  With 'minmax', the lowest and the
+  * highest item of each bucket are kept, so no spike is ever lost.
+  * <p>
+  * Either way only a bucket or two of items is held at a time, in
+  * parallel arrays, and buckets without items are simply skipped.
+  * NaN values cannot be drawn, so they are dropped.
+  */
+class HisDownsample implements HisSink
+{
+    /**
+      * Make a downsampler from the 'maxPoints' and 'downsample' options
+      * of a hisRead request, that passes its items on to the given sink.
+      * Return null if the request has no 'maxPoints'.
+      */
+    static HisDownsample make(HDict opts, HDict rec, HDateTimeRange range, HisSink out)
+    {
+        HVal maxPoints = opts.get(MAX_POINTS, false);
+        if (maxPoints == null) return null;
+
+        if (!(maxPoints instanceof HNum))
+            throw new IllegalArgumentException("'maxPoints' must be a number: " + maxPoints);
+        double val = ((HNum) maxPoints).val;
+        if (!(val >= MIN_POINTS))
+            throw new IllegalArgumentException("'maxPoints' must be at least " + MIN_POINTS + ": " + maxPoints);
+        if (val > MOST_POINTS)
+            throw new IllegalArgumentException("'maxPoints' must be at most " + MOST_POINTS + ": " + maxPoints);
+        int max = (int) val;
+
+        String method = opts.has(DOWNSAMPLE) ? opts.getStr(DOWNSAMPLE) : LTTB;
+        if (!method.equals(LTTB) && !method.equals(MINMAX))
+            throw new IllegalArgumentException("Unknown downsample method: " + method);
+
+        if (!(rec.has("kind") && rec.getStr("kind").equals("Number")))
+            throw new IllegalArgumentException("'maxPoints' requires a Number history");
+
+        return new HisDownsample(max, method.equals(LTTB), range.start.tz,
+            range.start.millis(), range.end.millis(), out);
+    }
+
+    HisDownsample(int maxPoints, boolean lttb, HTimeZone tz, long start, long end, HisSink out)
+    {
+        this.lttb = lttb;
+        this.tz = tz;
+        this.start = start;
+        this.span = Math.max(1, end - start);
+        this.out = out;
+
+        // lttb keeps the first and last items besides one per bucket,
+        // minmax keeps two per bucket
+        this.buckets = lttb ? maxPoints - 2 : maxPoints / 2;
+    }
+
+    String method()
+    {
+        return lttb ? LTTB : MINMAX;
+    }
+
+    @Override
+    public void add(HDateTime ts, HVal val)
+    {
+        double v = ((HNum) val).val;
+        if (Double.isNaN(v)) return;
+        if (unit == null) unit = ((HNum) val).unit;
+
+        long t = ts.millis();
+        if (lttb) addLttb(t, v);
+        else addMinMax(t, v);
+    }
+
+    @Override
+    public void finish()
+    {
+        if (lttb) finishLttb();
+        else finishMinMax();
+        out.finish();
+    }
+
+////////////////////////////////////////////////////////////////
+// lttb
+////////////////////////////////////////////////////////////////
+
+    private void addLttb(long t, double v)
+    {
+        if (!hasFirst)
+        {
+            // the first item is always kept
+            hasFirst = true;
+            emit(t, v);
+            selT = t;
+            selV = v;
+            return;
+        }
+
+        // hold each item back until the next one arrives,
+        // since the very last item is always kept too
+        if (hasHeld)
+        {
+            int bucket = bucketOf(heldT);
+            if (bucket != filling && next.size > 0)
+            {
+                // 'next' is complete, so the item to
+                // keep from 'current' can be chosen
+                if (current.size > 0)
+                    select(current, next.avgT(), next.avgV());
+
+                Bucket swap = current;
+                current = next;
+                next = swap;
+                next.clear();
+            }
+            filling = bucket;
+            next.add(heldT, heldV);
+        }
+
+        hasHeld = true;
+        heldT = t;
+        heldV = v;
+    }
+
+    private void finishLttb()
+    {
+        if (!hasHeld) return;
+
+        if (current.size > 0)
+        {
+            if (next.size > 0) select(current, next.avgT(), next.avgV());
+            else select(current, heldT, heldV);
+        }
+        if (next.size > 0)
+            select(next, heldT, heldV);
+
+        emit(heldT, heldV);
+    }
+
+    /**
+      * Keep the item of the bucket that forms the largest triangle with
+      * the item kept last and the given point, and make it the item kept last.
+      */
+    private void select(Bucket bucket, double nextT, double nextV)
+    {
+        int best = 0;
+        double bestArea = -1;
+        for (int i = 0; i < bucket.size; i++)
+        {
+            double area = Math.abs(
+                (selT - nextT) * (bucket.v[i] - selV) -
+                (selT - bucket.t[i]) * (nextV - selV));
+            if (area > bestArea)
+            {
+                bestArea = area;
+                best = i;
+            }
+        }
+
+        selT = bucket.t[best];
+        selV = bucket.v[best];
+        emit(bucket.t[best], bucket.v[best]);
+    }
+
+////////////////////////////////////////////////////////////////
+// minmax
+////////////////////////////////////////////////////////////////
+
+    private void addMinMax(long t, double v)
+    {
+        int bucket = bucketOf(t);
+        if (current.size > 0 && bucket != filling)
+            flushMinMax();
+        filling = bucket;
+
+        // slot 0 holds the lowest item, slot 1 the highest
+        if (current.size == 0)
+        {
+            current.add(t, v);
+            current.add(t, v);
+        }
+        else
+        {
+            if (v < current.v[0]) { current.t[0] = t; current.v[0] = v; }
+            if (v > current.v[1]) { current.t[1] = t; current.v[1] = v; }
+        }
+    }
+
+    private void finishMinMax()
+    {
+        if (current.size > 0)
+            flushMinMax();
+    }
+
+    private void flushMinMax()
+    {
+        long t0 = current.t[0], t1 = current.t[1];
+        if (t0 == t1)
+        {
+            emit(t0, current.v[0]);
+        }
+        else if (t0 < t1)
+        {
+            emit(t0, current.v[0]);
+            emit(t1, current.v[1]);
+        }
+        else
+        {
+            emit(t1, current.v[1]);
+            emit(t0, current.v[0]);
+        }
+        current.clear();
+    }
+
+////////////////////////////////////////////////////////////////
+// private
+////////////////////////////////////////////////////////////////
+
+    private int bucketOf(long t)
+    {
+        // in double, since (t - start) * buckets may not fit in a long
+        long bucket = (long) ((double) (t - start) / span * buckets);
+        return (int) Math.max(0, Math.min(buckets - 1, bucket));
+    }
+
+    private void emit(long t, double v)
+    {
+        out.add(HDateTime.make(t, tz), HNum.make(v, unit));
+    }
+
+    /**
+      * The items of one bucket.
+      */
+    private static final class Bucket
+    {
+        void add(long t, double v)
+        {
+            if (size == this.t.length)
+            {
+                this.t = Arrays.copyOf(this.t, size * 2);
+                this.v = Arrays.copyOf(this.v, size * 2);
+            }
+            this.t[size] = t;
+            this.v[size] = v;
+            size++;
+            sumT += t;
+            sumV += v;
+        }
+
+        void clear()
+        {
+            size = 0;
+            sumT = 0;
+            sumV = 0;
+        }
+
+        double avgT() { return sumT / size; }
+        double avgV() { return sumV / size; }
+
+        long[] t = new long[16];
+        double[] v = new double[16];
+        int size;
+        private double sumT;
+        private double sumV;
+    }
+
+////////////////////////////////////////////////////////////////
+// Attributes
+////////////////////////////////////////////////////////////////
+
+    static final String MAX_POINTS = "maxPoints";
+    static final String DOWNSAMPLE = "downsample";
+
+    static final String LTTB = "lttb";
+    static final String MINMAX = "minmax";
+
+    private static final int MIN_POINTS = 3;
+
+    // more points than any chart can show
+    static final int MOST_POINTS = 100000;
+
+    private final boolean lttb;
+    private final HTimeZone tz;
+    private final long start;
+    private final long span;
+    private final int buckets;
+    private final HisSink out;
+
+    private String unit;
+
+    // minmax fills 'current'.  lttb fills 'next', while 'current' is the
+    // bucket before it, whose item is chosen once 'next' is complete
+    private Bucket current = new Bucket();
+    private Bucket next = new Bucket();
+    private int filling;
+
+    // lttb: the item kept last, and the item held back
+    private boolean hasFirst;
+    private double selT;
+    private double selV;
+    private boolean hasHeld;
+    private long heldT;
+    private double heldV;
+}
@@ -0,0 +1,466 @@
+//
+// Copyright 2026 Project Haystack All Rights Reserved.
+// Licensed under the Academic Free License version 3.0
+//
+// History:
+//   18 Oct 2026  Creation
+//
+package nhaystack.server;
+
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import org.projecthaystack.HBool;
+import org.projecthaystack.HDateTime;
+import org.projecthaystack.HDateTimeRange;
+import org.projecthaystack.HDict;
+import org.projecthaystack.HDictBuilder;
+import org.projecthaystack.HGrid;
+import org.projecthaystack.HGridBuilder;
+import org.projecthaystack.HRef;
+import org.projecthaystack.HRow;
+import org.projecthaystack.HStr;
+import org.projecthaystack.HTimeZone;
+import org.projecthaystack.HVal;
+import org.projecthaystack.ParseException;
+import org.projecthaystack.UnknownNameException;
+import org.projecthaystack.io.HGridFormat;
+import org.projecthaystack.io.HGridWriter;
+import org.projecthaystack.io.HJsonWriter;
+import org.projecthaystack.io.HZincReader;
+import org.projecthaystack.io.HZincWriter;
+
+/**
+  * HisReadStream answers an HTTP hisRead request by writing each history
+  * item to the response as soon as it has been read, so that memory use
+  * stays flat no matter how long the range is, and the client starts
+  * receiving data straight away.
+  * <p>
+  * Only Zinc and JSON responses are streamed; the grid header is
+  * produced by the regular grid writer, and each row is encoded the same
+  * way the grid writer would have encoded it.  Anything that can go wrong
+  * with the request is checked before the response is started, so that
+  * it is still reported as an error grid.  Once the response has been
+  * started, an error ends it with a trailer that is not valid Zinc or
+  * JSON, so that the client cannot take what it got for a whole grid.
+  * <p>
+  * If the request has an 'interval' or 'maxPoints', the items are rolled
+  * up by a {@link HisRollup}, or thinned out by a {@link HisDownsample},
+  * on their way to the response.
+  */
+final class HisReadStream
+{
+    private HisReadStream()
+    {
+    }
+
+    /**
+      * Return whether the response to this request can be streamed,
+      * i.e. whether the client wants Zinc or JSON.
+      */
+    static boolean canStream(HttpServletRequest req)
+    {
+        Class<?> writer = responseFormat(req).writer;
+        return writer == HZincWriter.class || writer == HJsonWriter.class;
+    }
+
+    static void service(NHServer server, HttpServletRequest req, HttpServletResponse res)
+        throws IOException
+    {
+        HGridFormat format = responseFormat(req);
+        boolean json = format.writer == HJsonWriter.class;
+
+        HGrid reqGrid = readRequest(req, res);
+        if (reqGrid == null) return;
+
+        // resolve the request before starting the response
+        PrintWriter out = new PrintWriter(new OutputStreamWriter(
+            res.getOutputStream(), StandardCharsets.UTF_8));
+        RowWriter writer = json ? new JsonRowWriter(out) : new ZincRowWriter(out);
+
+        HDict rec;
+        HDateTimeRange range;
+        HDictBuilder meta = new HDictBuilder();
+        HisSink sink;
+        try
+        {
+            if (reqGrid.isEmpty())
+                throw new IllegalArgumentException("Request has no rows");
+
+            HRow row = reqGrid.row(0);
+            HRef id = NHServerOps.valToId(server, row.get("id"));
+            rec = server.readById(id);
+            range = toRange(rec, row.getStr("range"));
+
+            meta.add("id", rec.id())
+                .add("hisStart", range.start)
+                .add("hisEnd", range.end);
+            sink = wrap(row, rec, range, writer, meta);
+        }
+        catch (Exception e)
+        {
+            writeGrid(res, format, HGridBuilder.errToGrid(e));
+            return;
+        }
+
+        startResponse(res, format);
+        writer.begin(meta.toDict());
+        try
+        {
+            server.hisRead(rec, range, sink);
+            sink.finish();
+        }
+        catch (UncheckedIOException e)
+        {
+            // the client went away
+            if (LOG.isLoggable(Level.FINE))
+                LOG.fine("HisReadStream " + rec.id() + " aborted after " + writer.rows + " rows");
+            return;
+        }
+        catch (RuntimeException e)
+        {
+            LOG.log(Level.WARNING, "HisReadStream " + rec.id() + " failed after " + writer.rows + " rows", e);
+            writer.abort(e.toString());
+            return;
+        }
+        writer.end();
+
+        if (LOG.isLoggable(Level.FINE))
+            LOG.fine("HisReadStream " + rec.id() + ", " + range + ", " + writer.rows + " rows");
+    }
+
+    /**
+      * Resolve the range for the rec, the same way HServer.hisRead() does.
+      */
+    static HDateTimeRange toRange(HDict rec, String range)
+    {
+        if (rec.missing("his"))
+            throw new UnknownNameException("Rec missing 'his' tag: " + rec.dis());
+
+        HTimeZone tz = rec.has("tz") ? HTimeZone.make(rec.getStr("tz"), false) : null;
+        if (tz == null)
+            throw new UnknownNameException("Rec missing or invalid 'tz' tag: " + rec.dis());
+
+        HDateTimeRange result;
+        try
+        {
+            result = HDateTimeRange.make(range, tz);
+        }
+        catch (Exception e)
+        {
+            throw new ParseException("Invalid date time range: " + range, e);
+        }
+
+        if (!result.start.tz.equals(tz))
+            throw new RuntimeException("range.tz != rec: " + result.start.tz + " != " + tz);
+
+        return result;
+    }
+
+    /**
+      * Wrap the sink in a HisRollup and/or a HisDownsample, if the
+      * request options call for them, so that the items are rolled up
+      * first and then downsampled.  The options that are in effect are
+      * added to the meta, if it is not null.
+      */
+    static HisSink wrap(HDict opts, HDict rec, HDateTimeRange range, HisSink out, HDictBuilder meta)
+    {
+        HisSink sink = out;
+
+        HisDownsample downsample = HisDownsample.make(opts, rec, range, sink);
+        if (downsample != null)
+        {
+            sink = downsample;
+            if (meta != null)
+            {
+                meta.add(HisDownsample.MAX_POINTS, opts.get(HisDownsample.MAX_POINTS));
+                meta.add(HisDownsample.DOWNSAMPLE, downsample.method());
+            }
+        }
+
+        HisRollup rollup = HisRollup.make(opts, rec, range, sink);
+        if (rollup != null)
+        {
+            sink = rollup;
+            if (meta != null)
+            {
+                meta.add(HisRollup.INTERVAL, opts.get(HisRollup.INTERVAL));
+                meta.add(HisRollup.FOLD, rollup.fold.name);
+            }
+        }
+
+        return sink;
+    }
+
+////////////////////////////////////////////////////////////////
+// request / response
+////////////////////////////////////////////////////////////////
+
+    /**
+      * Choose the response format from the Accept header, the same way HOp does.
+      */
+    private static HGridFormat responseFormat(HttpServletRequest req)
+    {
+        String accept = req.getHeader("Accept");
+        if (accept != null)
+        {
+            for (String mime : HStr.split(accept, ',', true))
+            {
+                HGridFormat format = HGridFormat.find(mime, false);
+                if (format != null && format.writer != null)
+                    return format;
+            }
+        }
+        return HGridFormat.find("text/plain", true);
+    }
+
+    /**
+      * Read the request grid from the query parameters of a GET,
+      * or the body of a POST.  Return null if an error has been sent.
+      */
+    private static HGrid readRequest(HttpServletRequest req, HttpServletResponse res)
+        throws IOException
+    {
+        if (req.getMethod().equals("GET"))
+        {
+            HDictBuilder hdb = new HDictBuilder();
+            for (Map.Entry<String, String[]> entry : req.getParameterMap().entrySet())
+            {
+                String str = entry.getValue()[0];
+                HVal val;
+                try
+                {
+                    val = new HZincReader(str).readVal();
+                }
+                catch (Exception e)
+                {
+                    val = HStr.make(str);
+                }
+                hdb.add(entry.getKey(), val);
+            }
+            return HGridBuilder.dictToGrid(hdb.toDict());
+        }
+
+        String mime = req.getHeader("Content-Type");
+        if (mime == null)
+        {
+            res.sendError(HttpServletResponse.SC_BAD_REQUEST, "Missing 'Content-Type' header");
+            return null;
+        }
+
+        HGridFormat format = HGridFormat.find(mime, false);
+        if (format == null || format.reader == null)
+        {
+            res.sendError(HttpServletResponse.SC_BAD_REQUEST, "No format reader available for MIME type: " + mime);
+            return null;
+        }
+
+        return format.makeReader(req.getInputStream()).readGrid();
+    }
+
+    private static void startResponse(HttpServletResponse res, HGridFormat format)
+    {
+        res.setStatus(HttpServletResponse.SC_OK);
+        if (format.mime.startsWith("text/"))
+        {
+            res.setCharacterEncoding("UTF-8");
+            res.setContentType(format.mime + "; charset=utf-8");
+        }
+        else
+        {
+            res.setContentType(format.mime);
+        }
+    }
+
+    private static void writeGrid(HttpServletResponse res, HGridFormat format, HGrid grid)
+        throws IOException
+    {
+        startResponse(res, format);
+        HGridWriter writer = format.makeWriter(res.getOutputStream());
+        writer.writeGrid(grid);
+        writer.flush();
+    }
+
+////////////////////////////////////////////////////////////////
+// RowWriter
+////////////////////////////////////////////////////////////////
+
+    /**
+      * Writes a his grid to the response one row at a time.
+      */
+    private abstract static class RowWriter implements HisSink
+    {
+        RowWriter(PrintWriter out)
+        {
+            this.out = out;
+        }
+
+        abstract void begin(HDict meta);
+
+        abstract void writeRow(HDateTime ts, HVal val);
+
+        abstract void end();
+
+        /**
+          * End the response with a trailer that makes the grid fail to
+          * parse, since the status and header have already been sent.
+          */
+        abstract void abort(String err);
+
+        /**
+          * Return the line of the trailer that abort() writes.
+          */
+        static String errorTrailer(String err)
+        {
+            return "!error " + err.replace('\n', ' ').replace('\r', ' ') + '\n';
+        }
+
+        @Override
+        public void add(HDateTime ts, HVal val)
+        {
+            writeRow(ts, val);
+            rows++;
+
+            // PrintWriter swallows IOExceptions, so check
+            // now and then whether the client is still there
+            if (rows % FLUSH_ROWS == 0)
+            {
+                out.flush();
+                if (out.checkError())
+                    throw new UncheckedIOException(new IOException("Response closed"));
+            }
+        }
+
+        /**
+          * Return the text of an empty his grid with the given
+          * meta, as the grid writer for the format encodes it.
+          */
+        static String emptyGrid(HDict meta, boolean json)
+        {
+            HGridBuilder gb = new HGridBuilder();
+            gb.meta().add(meta);
+            gb.addCol("ts");
+            gb.addCol("val");
+            HGrid grid = gb.toGrid();
+            return json ? HJsonWriter.gridToString(grid) : HZincWriter.gridToString(grid);
+        }
+
+        final PrintWriter out;
+        int rows;
+    }
+
+    private static final class ZincRowWriter extends RowWriter
+    {
+        ZincRowWriter(PrintWriter out)
+        {
+            super(out);
+        }
+
+        @Override
+        void begin(HDict meta)
+        {
+            // the header ends with the column names and a newline
+            out.print(emptyGrid(meta, false));
+        }
+
+        @Override
+        void writeRow(HDateTime ts, HVal val)
+        {
+            out.print(ts.toZinc());
+            out.print(',');
+            if (val != null) out.print(val.toZinc());
+            out.print('\n');
+        }
+
+        @Override
+        void end()
+        {
+            out.flush();
+        }
+
+        @Override
+        void abort(String err)
+        {
+            // each row ends with a newline, so the trailer comes in
+            // place of a row, rather than after the blank line that
+            // would end the grid
+            out.print(errorTrailer(err));
+            out.flush();
+        }
+    }
+
+    private static final class JsonRowWriter extends RowWriter
+    {
+        JsonRowWriter(PrintWriter out)
+        {
+            super(out);
+        }
+
+        @Override
+        void begin(HDict meta)
+        {
+            // split the empty grid around its empty array of rows
+            String grid = emptyGrid(meta, true);
+            int n = grid.lastIndexOf(']');
+            out.print(grid.substring(0, n).trim());
+            out.print('\n');
+            footer = grid.substring(n);
+        }
+
+        @Override
+        void writeRow(HDateTime ts, HVal val)
+        {
+            if (rows > 0) out.print(",\n");
+            out.print("{\"ts\":");
+            out.print(toJson(ts));
+            out.print(", \"val\":");
+            out.print(toJson(val));
+            out.print('}');
+        }
+
+        @Override
+        void end()
+        {
+            out.print('\n');
+            out.print(footer);
+            out.flush();
+        }
+
+        @Override
+        void abort(String err)
+        {
+            // leave the rows array unclosed
+            out.print('\n');
+            out.print(errorTrailer(err));
+            out.flush();
+        }
+
+        /**
+          * Encode a scalar the same way HJsonWriter does.
+          */
+        private static String toJson(HVal val)
+        {
+            if (val == null) return "null";
+            if (val instanceof HBool) return val.toString();
+            return HStr.toCode(val.toJson());
+        }
+
+        private String footer;
+    }
+
+////////////////////////////////////////////////////////////////
+// Attributes
+////////////////////////////////////////////////////////////////
+
+    private static final Logger LOG = Logger.getLogger("nhaystack");
+
+    // flush the response every so many rows
+    private static final int FLUSH_ROWS = 1000;
+}
@@ -0,0 +1,297 @@
+//
+// Copyright 2026 Project Haystack All Rights Reserved.
+// Licensed under the Academic Free License version 3.0
+//
+// History:
+//   18 Oct 2026  Creation
+//
+package nhaystack.server;
+
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import org.projecthaystack.HDateTime;
+import org.projecthaystack.HDateTimeRange;
+import org.projecthaystack.HDict;
+import org.projecthaystack.HNum;
+import org.projecthaystack.HTimeZone;
+import org.projecthaystack.HVal;
+
+/**
+  * HisRollup folds the items of a history read into one item per
+  * interval, as they are read, so that only the rolled up items are
+  * ever held or sent.
+  * <p>
+  * The intervals are aligned to local midnight in the history's
+  * timezone; intervals of whole days are counted in calendar days, so
+  * that they follow daylight saving changes.  Each rolled up item is
+  * stamped with the start of its interval, and only intervals that
+  * contain at least one item are reported.
+  * <p>
+  * count, first and last work for any kind of history.  avg, min, max,
+  * sum and twavg (time-weighted average) need a numeric history.  For
+  * twavg each value holds until the next one, so the value that was in
+  * effect when an interval began is weighted in as well, and the last
+  * value holds until the end of the range.
+  */
+class HisRollup implements HisSink
+{
+    /**
+      * Make a rollup from the 'interval' and 'fold' options of a hisRead
+      * request, that passes its items on to the given sink.  Return null
+      * if the request has no 'interval'.
+      */
+    static HisRollup make(HDict opts, HDict rec, HDateTimeRange range, HisSink out)
+    {
+        HVal interval = opts.get(INTERVAL, false);
+        if (interval == null) return null;
+
+        if (!(interval instanceof HNum))
+            throw new IllegalArgumentException("'interval' must be a duration: " + interval);
+        HNum num = (HNum) interval;
+        long millis = num.unit == null ? (long) num.val : num.millis();
+        if (millis <= 0)
+            throw new IllegalArgumentException("'interval' must be positive: " + interval);
+
+        Fold fold = Fold.fromName(opts.has(FOLD) ? opts.getStr(FOLD) : "avg");
+        if (fold.numeric && !(rec.has("kind") && rec.getStr("kind").equals("Number")))
+            throw new IllegalArgumentException("Fold '" + fold.name + "' requires a Number history");
+
+        return new HisRollup(millis, fold, range.start.tz, range.end.millis(), out);
+    }
+
+    HisRollup(long interval, Fold fold, HTimeZone tz, long rangeEnd, HisSink out)
+    {
+        this.interval = interval;
+        this.fold = fold;
+        this.tz = tz;
+        this.zone = tz.java.toZoneId();
+        this.rangeEnd = rangeEnd;
+        this.out = out;
+    }
+
+    /**
+      * Add the next item.  The items must arrive in timestamp order.
+      */
+    @Override
+    public void add(HDateTime ts, HVal val)
+    {
+        long millis = ts.millis();
+
+        if (!inBucket || millis >= bucketEnd)
+        {
+            if (inBucket)
+                finishBucket();
+            startBucket(millis);
+        }
+
+        // the previous value holds from its own time, or
+        // the start of this bucket, until this item
+        if (fold == Fold.TWAVG && prevVal != null)
+            weigh(Math.max(prevMillis, bucketStart), millis, prevVal);
+
+        switch (fold)
+        {
+            case COUNT:
+                count++;
+                break;
+            case FIRST:
+                if (first == null) first = val;
+                break;
+            case LAST:
+                last = val;
+                break;
+            case TWAVG:
+                if (unit == null) unit = ((HNum) val).unit;
+                break;
+            default:
+                accumulate((HNum) val);
+        }
+
+        prevMillis = millis;
+        prevVal = val;
+    }
+
+    /**
+      * Report the last interval.  Call this once every item has been added.
+      */
+    @Override
+    public void finish()
+    {
+        if (inBucket)
+            finishBucket();
+        out.finish();
+    }
+
+////////////////////////////////////////////////////////////////
+// private
+////////////////////////////////////////////////////////////////
+
+    private void startBucket(long millis)
+    {
+        bucketStart = floor(millis);
+        bucketEnd = next(bucketStart);
+        inBucket = true;
+
+        count = 0;
+        first = null;
+        last = null;
+        sum = 0;
+        min = Double.POSITIVE_INFINITY;
+        max = Double.NEGATIVE_INFINITY;
+        weighted = 0;
+        weight = 0;
+    }
+
+    private void finishBucket()
+    {
+        HVal val;
+        switch (fold)
+        {
+            case COUNT: val = HNum.make(count); break;
+            case FIRST: val = first; break;
+            case LAST:  val = last; break;
+            case SUM:   val = HNum.make(sum, unit); break;
+            case MIN:   val = HNum.make(min, unit); break;
+            case MAX:   val = HNum.make(max, unit); break;
+            case AVG:   val = HNum.make(sum / count, unit); break;
+            case TWAVG:
+                // the last value holds until the end of the
+                // bucket, or of the range if that comes first
+                weigh(Math.max(prevMillis, bucketStart), Math.min(bucketEnd, rangeEnd), prevVal);
+                val = weight > 0 ?
+                    HNum.make(weighted / weight, unit) :
+                    HNum.make(((HNum) prevVal).val, unit);
+                break;
+            default:
+                throw new IllegalStateException();
+        }
+
+        out.add(HDateTime.make(bucketStart, tz), val);
+        inBucket = false;
+    }
+
+    private void accumulate(HNum num)
+    {
+        if (unit == null) unit = num.unit;
+
+        count++;
+        sum += num.val;
+        if (num.val < min) min = num.val;
+        if (num.val > max) max = num.val;
+    }
+
+    private void weigh(long from, long to, HVal val)
+    {
+        if (to <= from || !(val instanceof HNum)) return;
+
+        double v = ((HNum) val).val;
+        if (Double.isNaN(v)) return;
+
+        weighted += v * (to - from);
+        weight += to - from;
+    }
+
+    /**
+      * Return the start of the interval that contains the given time.
+      */
+    private long floor(long millis)
+    {
+        LocalDate date = Instant.ofEpochMilli(millis).atZone(zone).toLocalDate();
+        if (interval % DAY == 0)
+        {
+            long days = interval / DAY;
+            date = date.minusDays(Math.floorMod(date.toEpochDay(), days));
+            return date.atStartOfDay(zone).toInstant().toEpochMilli();
+        }
+
+        long midnight = date.atStartOfDay(zone).toInstant().toEpochMilli();
+        return midnight + (millis - midnight) / interval * interval;
+    }
+
+    /**
+      * Return the start of the interval after the one that starts at the given time.
+      */
+    private long next(long start)
+    {
+        if (interval % DAY == 0)
+        {
+            return Instant.ofEpochMilli(start).atZone(zone)
+                .plusDays(interval / DAY).toInstant().toEpochMilli();
+        }
+
+        // don't let a sub-day interval run past midnight
+        long end = start + interval;
+        LocalDate date = Instant.ofEpochMilli(start).atZone(zone).toLocalDate();
+        long nextMidnight = date.plusDays(1).atStartOfDay(zone).toInstant().toEpochMilli();
+        return Math.min(end, nextMidnight);
+    }
+
+////////////////////////////////////////////////////////////////
+// Fold
+////////////////////////////////////////////////////////////////
+
+    enum Fold
+    {
+        AVG("avg", true),
+        MIN("min", true),
+        MAX("max", true),
+        SUM("sum", true),
+        COUNT("count", false),
+        FIRST("first", false),
+        LAST("last", false),
+        TWAVG("twavg", true);
+
+        Fold(String name, boolean numeric)
+        {
+            this.name = name;
+            this.numeric = numeric;
+        }
+
+        static Fold fromName(String name)
+        {
+            for (Fold fold : values())
+                if (fold.name.equals(name))
+                    return fold;
+            throw new IllegalArgumentException("Unknown fold: " + name);
+        }
+
+        final String name;
+        final boolean numeric;
+    }
+
+////////////////////////////////////////////////////////////////
+// Attributes
+////////////////////////////////////////////////////////////////
+
+    static final String INTERVAL = "interval";
+    static final String FOLD = "fold";
+
+    private static final long DAY = 24 * 60 * 60 * 1000L;
+
+    private final long interval;
+    final Fold fold;
+    private final HTimeZone tz;
+    private final ZoneId zone;
+    private final long rangeEnd;
+    private final HisSink out;
+
+    // the current bucket
+    private boolean inBucket;
+    private long bucketStart;
+    private long bucketEnd;
+
+    private int count;
+    private HVal first;
+    private HVal last;
+    private double sum;
+    private double min;
+    private double max;
+    private double weighted;
+    private long weight;
+    private String unit;
+
+    // the previous item, which may be in an earlier bucket
+    private long prevMillis;
+    private HVal prevVal;
+}
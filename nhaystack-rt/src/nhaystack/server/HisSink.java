@@ -0,0 +1,31 @@
+//
+// Copyright 2026 Project Haystack All Rights Reserved.
+// Licensed under the Academic Free License version 3.0
+//
+// History:
+//   18 Oct 2026  Creation
+//
+package nhaystack.server;
+
+import org.projecthaystack.HDateTime;
+import org.projecthaystack.HVal;
+
+/**
+  * HisSink receives the items of a history read one at a time,
+  * in timestamp order, as they are read from the history.
+  * <p>
+  * A sink that wraps another one, such as a {@link HisRollup}, may hold
+  * on to some items until it sees the next ones, so finish() must be
+  * called once the read is complete.
+  */
+interface HisSink
+{
+    void add(HDateTime ts, HVal val);
+
+    /**
+      * Called once every item has been added.
+      */
+    default void finish()
+    {
+    }
+}
@@ -0,0 +1,346 @@
+//
+// Copyright 2026 Project Haystack All Rights Reserved.
+// Licensed under the Academic Free License version 3.0
+//
+// History:
+//   18 Oct 2026  Creation
+//
+package nhaystack.server;
+
+import java.util.Arrays;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.baja.collection.BITable;
+import javax.baja.collection.TableCursor;
+import javax.baja.history.BBooleanTrendRecord;
+import javax.baja.history.BHistoryConfig;
+import javax.baja.history.BHistoryRecord;
+import javax.baja.history.BIHistory;
+import javax.baja.history.BNumericTrendRecord;
+import javax.baja.history.HistorySpaceConnection;
+import javax.baja.history.db.BHistoryDatabase;
+import javax.baja.status.BStatus;
+import javax.baja.sys.BAbsTime;
+import javax.baja.timezone.BTimeZone;
+import org.projecthaystack.HBool;
+import org.projecthaystack.HHisItem;
+import org.projecthaystack.HNum;
+import org.projecthaystack.HVal;
+
+/**
+  * HisWriter writes a batch of items to a local history as fast as the
+  * history database allows, and reports what became of each item.
+  * <p>
+  * The items are sorted by timestamp first.  When the batch holds the
+  * same timestamp more than once, the last one given wins, and the
+  * others are reported as duplicates.  Items after the last record in
+  * the history are appended, a batch at a time, each batch on its own
+  * connection.  Late items, at or before the last record, are checked
+  * against the records already in the history: if a record with the same
+  * time and value is there already the item is a duplicate, otherwise it
+  * is reported as late and is not written, since a history can only be
+  * appended to, and appending it would put the history out of order.
+  * A late item whose value differs from the record at its time, such as
+  * a correction from a backfill, is reported as late too, with an err
+  * that says so.
+  */
+final class HisWriter
+{
+    /**
+      * What became of an item.
+      */
+    enum Outcome
+    {
+        APPENDED("appended"),
+        DUPLICATE("duplicate"),
+        LATE("late"),
+        FAILED("failed");
+
+        Outcome(String name)
+        {
+            this.name = name;
+        }
+
+        final String name;
+    }
+
+    /**
+      * The outcome of each item, in the order the items were given.
+      */
+    static final class Result
+    {
+        Result(int size)
+        {
+            this.outcomes = new Outcome[size];
+            this.errors = new String[size];
+        }
+
+        int count(Outcome outcome)
+        {
+            int n = 0;
+            for (Outcome o : outcomes)
+                if (o == outcome) n++;
+            return n;
+        }
+
+        /**
+          * Return the index of the first item that failed, or -1.
+          */
+        int firstFailure()
+        {
+            for (int i = 0; i < outcomes.length; i++)
+                if (outcomes[i] == Outcome.FAILED) return i;
+            return -1;
+        }
+
+        /**
+          * Return the index of the first item that was not written
+          * because it was late, or -1.
+          */
+        int firstLate()
+        {
+            for (int i = 0; i < outcomes.length; i++)
+                if (outcomes[i] == Outcome.LATE) return i;
+            return -1;
+        }
+
+        final Outcome[] outcomes;
+        final String[] errors;
+    }
+
+    HisWriter(BHistoryDatabase db, BHistoryConfig cfg, String kind)
+    {
+        this.db = db;
+        this.cfg = cfg;
+        this.bool = kind.equals("Bool");
+        this.tz = cfg.getTimeZone();
+
+        if (!bool && !kind.equals("Number"))
+            throw new IllegalStateException("Cannot create trend record for kind " + kind);
+    }
+
+    Result write(HHisItem[] items)
+    {
+        long begin = System.nanoTime();
+        Result result = new Result(items.length);
+
+        // check and unpack the values up front
+        long[] millis = new long[items.length];
+        double[] vals = new double[items.length];
+        for (int i = 0; i < items.length; i++)
+        {
+            HVal val = items[i].val;
+            millis[i] = items[i].ts.millis();
+            if (bool && val instanceof HBool)
+            {
+                vals[i] = ((HBool) val).val ? 1 : 0;
+            }
+            else if (!bool && val instanceof HNum)
+            {
+                vals[i] = ((HNum) val).val;
+            }
+            else
+            {
+                fail(result, i, "Expected " + (bool ? "Bool" : "Number") + ": " + val);
+            }
+        }
+
+        int[] order = sortAndDedup(millis, result);
+
+        // split off the late items
+        try (HistorySpaceConnection conn = db.getConnection(null))
+        {
+            BIHistory history = conn.getHistory(cfg.getId());
+            BHistoryRecord lastRec = conn.getLastRecord(history);
+            long last = lastRec == null ? Long.MIN_VALUE : lastRec.getTimestamp().getMillis();
+
+            int tail = 0;
+            while (tail < order.length && millis[order[tail]] <= last)
+                tail++;
+
+            if (tail > 0)
+                checkLate(conn, history, Arrays.copyOfRange(order, 0, tail), millis, vals, result);
+            order = Arrays.copyOfRange(order, tail, order.length);
+        }
+
+        // append the tail a batch at a time
+        for (int from = 0; from < order.length; from += BATCH_SIZE)
+        {
+            int to = Math.min(order.length, from + BATCH_SIZE);
+            try (HistorySpaceConnection conn = db.getConnection(null))
+            {
+                BIHistory history = conn.getHistory(cfg.getId());
+                for (int n = from; n < to; n++)
+                {
+                    int i = order[n];
+                    try
+                    {
+                        conn.append(history, record(millis[i], vals[i]));
+                        result.outcomes[i] = Outcome.APPENDED;
+                    }
+                    catch (RuntimeException e)
+                    {
+                        fail(result, i, e.toString());
+                    }
+                }
+            }
+        }
+
+        if (LOG.isLoggable(Level.FINE))
+        {
+            long elapsed = Math.max(1, (System.nanoTime() - begin) / 1000000L);
+            LOG.fine("HisWriter " + cfg.getId() + ": " +
+                result.count(Outcome.APPENDED) + " appended, " +
+                result.count(Outcome.DUPLICATE) + " duplicate, " +
+                result.count(Outcome.LATE) + " late, " +
+                result.count(Outcome.FAILED) + " failed in " + elapsed + "ms");
+        }
+
+        return result;
+    }
+
+////////////////////////////////////////////////////////////////
+// private
+////////////////////////////////////////////////////////////////
+
+    /**
+      * Return the indexes of the items that are to be written, in
+      * timestamp order, leaving out the items that have already failed,
+      * and marking all but the last of the items with the same timestamp
+      * as duplicates.
+      */
+    static int[] sortAndDedup(long[] millis, Result result)
+    {
+        int count = 0;
+        Integer[] boxed = new Integer[millis.length];
+        for (int i = 0; i < millis.length; i++)
+        {
+            if (result.outcomes[i] == null)
+                boxed[count++] = i;
+        }
+
+        // sort by timestamp, then by position
+        Arrays.sort(boxed, 0, count, (a, b) -> millis[a] != millis[b] ?
+            Long.compare(millis[a], millis[b]) :
+            Integer.compare(a, b));
+
+        int[] order = new int[count];
+        int size = 0;
+        for (int n = 0; n < count; n++)
+        {
+            int i = boxed[n];
+            if (n + 1 < count && millis[boxed[n + 1]] == millis[i])
+                result.outcomes[i] = Outcome.DUPLICATE;
+            else
+                order[size++] = i;
+        }
+        return Arrays.copyOf(order, size);
+    }
+
+    /**
+      * Sort out the items at or before the last record in the history,
+      * which are given in timestamp order, into duplicates of records
+      * that are already there and items that are too late to write.
+      */
+    private void checkLate(HistorySpaceConnection conn, BIHistory history,
+        int[] late, long[] millis, double[] vals, Result result)
+    {
+        // the timestamps and values that are already in the history
+        long[] existing = new long[Math.min(late.length, 1024)];
+        double[] values = new double[existing.length];
+        int size = 0;
+        BITable<BHistoryRecord> table = conn.timeQuery(history,
+            BAbsTime.make(millis[late[0]], tz),
+            BAbsTime.make(millis[late[late.length - 1]], tz));
+        try (TableCursor<BHistoryRecord> cursor = table.cursor())
+        {
+            while (cursor.next())
+            {
+                if (size == existing.length)
+                {
+                    existing = Arrays.copyOf(existing, size * 2);
+                    values = Arrays.copyOf(values, size * 2);
+                }
+                BHistoryRecord rec = cursor.get();
+                existing[size] = rec.getTimestamp().getMillis();
+                values[size] = value(rec);
+                size++;
+            }
+        }
+
+        // the records come in timestamp order
+        for (int i : late)
+        {
+            int n = Arrays.binarySearch(existing, 0, size, millis[i]);
+            if (n >= 0 && Double.compare(values[n], vals[i]) == 0)
+            {
+                result.outcomes[i] = Outcome.DUPLICATE;
+            }
+            else if (n >= 0)
+            {
+                result.outcomes[i] = Outcome.LATE;
+                result.errors[i] = "A record with a different value is already at this time";
+            }
+            else
+            {
+                result.outcomes[i] = Outcome.LATE;
+                result.errors[i] = "At or before the last record in the history";
+            }
+        }
+    }
+
+    /**
+      * Return a new trend record with the given time and value.  A new
+      * one is made for each item, since the history database may keep
+      * the record it is given.
+      */
+    private BHistoryRecord record(long millis, double val)
+    {
+        BAbsTime ts = BAbsTime.make(millis, tz);
+        if (bool)
+        {
+            BBooleanTrendRecord rec = new BBooleanTrendRecord();
+            rec.set(ts, val != 0, BStatus.ok);
+            return rec;
+        }
+        else
+        {
+            BNumericTrendRecord rec = new BNumericTrendRecord();
+            rec.set(ts, val, BStatus.ok);
+            return rec;
+        }
+    }
+
+    /**
+      * Return the value of a trend record the way write() unpacks the
+      * items, or NaN if it is not a numeric or boolean record.
+      */
+    private static double value(BHistoryRecord rec)
+    {
+        if (rec instanceof BNumericTrendRecord)
+            return ((BNumericTrendRecord) rec).getValue();
+        if (rec instanceof BBooleanTrendRecord)
+            return ((BBooleanTrendRecord) rec).getValue() ? 1 : 0;
+        return Double.NaN;
+    }
+
+    private static void fail(Result result, int i, String error)
+    {
+        result.outcomes[i] = Outcome.FAILED;
+        result.errors[i] = error;
+    }
+
+////////////////////////////////////////////////////////////////
+// Attributes
+////////////////////////////////////////////////////////////////
+
+    private static final Logger LOG = Logger.getLogger("nhaystack");
+
+    // append this many items on each connection
+    private static final int BATCH_SIZE = 10000;
+
+    private final BHistoryDatabase db;
+    private final BHistoryConfig cfg;
+    private final boolean bool;
+    private final BTimeZone tz;
+}
@@ -0,0 +1,275 @@
+//
+// Copyright 2026 Project Haystack All Rights Reserved.
+// Licensed under the Academic Free License version 3.0
+//
+// History:
+//   18 Oct 2026  Creation
+//
+package nhaystack.server;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.baja.control.BControlPoint;
+import javax.baja.sys.BComponentSpace;
+import javax.baja.sys.Clock;
+import org.projecthaystack.HDateTime;
+import org.projecthaystack.HDict;
+import org.projecthaystack.HDictBuilder;
+import org.projecthaystack.HGrid;
+import org.projecthaystack.HGridBuilder;
+import org.projecthaystack.HNum;
+import org.projecthaystack.HRow;
+import org.projecthaystack.HStr;
+import org.projecthaystack.HTimeZone;
+import org.projecthaystack.io.HZincReader;
+import org.projecthaystack.io.HZincWriter;
+
+/**
+  * LastWriteStore remembers who made the last pointWrite to each level
+  * of each point, so that pointWriteArray can report who last wrote each
+  * level.
+  * <p>
+  * Each point has a fixed slot per level, holding who wrote it and when,
+  * in parallel arrays that are only ever written in place, so a busy level
+  * never pushes out the writer of another.  Nothing is stored on the point
+  * itself, so writes no longer change the station.  The slots of points
+  * that have been removed from the station are dropped when the slots are
+  * saved, or every PRUNE_INTERVAL if they are not.
+  * <p>
+  * When the service's 'lastWritePersistInterval' is not zero, the slots
+  * are saved to a Zinc file that often while there are new writes, and
+  * again when the service stops, and they are read back when the service
+  * starts.  Otherwise the last writes are lost on restart.
+  */
+class LastWriteStore
+{
+    LastWriteStore(NHServer server, File file)
+    {
+        this.server = server;
+        this.file = file;
+    }
+
+    /**
+      * Record writes to a point.
+      */
+    void record(BControlPoint point, int[] levels, String[] whos)
+    {
+        long now = Clock.millis();
+        Slots slots = points.computeIfAbsent(key(point), k -> new Slots());
+        for (int i = 0; i < levels.length; i++)
+            slots.set(levels[i], whos[i], now);
+
+        changed();
+    }
+
+    /**
+      * Return who last wrote each of the 17 levels of the point,
+      * with null for the levels that have not been written.
+      */
+    String[] lastWhos(BControlPoint point)
+    {
+        Slots slots = points.get(key(point));
+        return slots == null ? new String[LEVELS] : slots.lastWhos();
+    }
+
+    /**
+      * Write the slots to the file.
+      */
+    synchronized void save()
+    {
+        pending.set(false);
+        if (interval() <= 0) return;
+
+        prune();
+
+        ArrayList<HDict> rows = new ArrayList<>();
+        for (Map.Entry<String, Slots> entry : points.entrySet())
+            entry.getValue().toRows(entry.getKey(), rows);
+
+        try
+        {
+            File dir = file.getParentFile();
+            if (dir != null && !dir.exists() && !dir.mkdirs())
+                throw new IOException("Cannot create " + dir);
+
+            File tmp = new File(file.getPath() + ".tmp");
+            try (OutputStream out = new FileOutputStream(tmp))
+            {
+                HZincWriter writer = new HZincWriter(out);
+                writer.writeGrid(HGridBuilder.dictsToGrid(rows.toArray(EMPTY_HDICT_ARRAY)));
+                writer.flush();
+            }
+            Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+
+            if (LOG.isLoggable(Level.FINE))
+                LOG.fine("LastWriteStore saved " + rows.size() + " rows to " + file);
+        }
+        catch (IOException e)
+        {
+            LOG.warning("LastWriteStore cannot save " + file + ": " + e.getMessage());
+        }
+    }
+
+    /**
+      * Read the slots back from the file.
+      */
+    void restore()
+    {
+        if (interval() <= 0 || !file.exists()) return;
+
+        HGrid grid;
+        try (InputStream in = Files.newInputStream(file.toPath()))
+        {
+            grid = new HZincReader(in).readGrid();
+        }
+        catch (Exception e)
+        {
+            LOG.warning("LastWriteStore cannot read " + file + ": " + e.getMessage());
+            return;
+        }
+
+        for (int i = 0; i < grid.numRows(); i++)
+        {
+            HRow row = grid.row(i);
+            points.computeIfAbsent(row.getStr("point"), k -> new Slots()).set(
+                row.getInt("level"),
+                row.getStr("who"),
+                ((HDateTime) row.get("ts")).millis());
+        }
+        prune();
+
+        LOG.info("LastWriteStore restored " + grid.numRows() + " writes from " + file);
+    }
+
+////////////////////////////////////////////////////////////////
+// private
+////////////////////////////////////////////////////////////////
+
+    private static String key(BControlPoint point)
+    {
+        return String.valueOf(point.getHandle());
+    }
+
+    private long interval()
+    {
+        return server.getService().getLastWritePersistInterval().getMillis();
+    }
+
+    private void changed()
+    {
+        long interval = interval();
+        if (interval <= 0)
+        {
+            // nothing is saved, so prune now and then instead
+            long now = Clock.ticks();
+            if (now - lastPrune >= PRUNE_INTERVAL)
+            {
+                lastPrune = now;
+                server.scheduleWatchTask(this::prune, 0);
+            }
+            return;
+        }
+
+        if (pending.compareAndSet(false, true))
+            server.scheduleWatchTask(this::saveQuietly, interval);
+    }
+
+    /**
+      * Drop the slots of the points that are no longer in the station.
+      */
+    private void prune()
+    {
+        BComponentSpace space = server.getService().getComponentSpace();
+        int before = points.size();
+        points.keySet().removeIf(handle -> space.findByHandle(handle) == null);
+
+        if (LOG.isLoggable(Level.FINE) && points.size() < before)
+            LOG.fine("LastWriteStore dropped " + (before - points.size()) + " removed points");
+    }
+
+    private void saveQuietly()
+    {
+        try
+        {
+            save();
+        }
+        catch (RuntimeException e)
+        {
+            LOG.log(Level.WARNING, "LastWriteStore cannot save " + file, e);
+        }
+    }
+
+////////////////////////////////////////////////////////////////
+// Slots
+////////////////////////////////////////////////////////////////
+
+    /**
+      * Who last wrote each level of one point, and when.
+      */
+    static final class Slots
+    {
+        synchronized void set(int level, String who, long ts)
+        {
+            if (level < 1 || level > LEVELS) return;
+            whos[level - 1] = who;
+            times[level - 1] = ts;
+        }
+
+        synchronized String[] lastWhos()
+        {
+            return whos.clone();
+        }
+
+        synchronized void toRows(String point, ArrayList<HDict> rows)
+        {
+            for (int i = 0; i < LEVELS; i++)
+            {
+                if (whos[i] == null) continue;
+                rows.add(new HDictBuilder()
+                    .add("point", HStr.make(point))
+                    .add("level", HNum.make(i + 1))
+                    .add("who", HStr.make(whos[i]))
+                    .add("ts", HDateTime.make(times[i], HTimeZone.UTC))
+                    .toDict());
+            }
+        }
+
+        private final String[] whos = new String[LEVELS];
+        private final long[] times = new long[LEVELS];
+    }
+
+////////////////////////////////////////////////////////////////
+// Attributes
+////////////////////////////////////////////////////////////////
+
+    static final String FILE_NAME = "nhaystack/lastWrites.zinc";
+
+    private static final Logger LOG = Logger.getLogger("nhaystack");
+
+    private static final HDict[] EMPTY_HDICT_ARRAY = new HDict[0];
+
+    static final int LEVELS = 17;
+
+    // drop the slots of removed points this often, when they are not saved
+    private static final long PRUNE_INTERVAL = 10 * 60 * 1000L;
+
+    private final NHServer server;
+    private final File file;
+
+    // keyed by component handle
+    private final Map<String, Slots> points = new ConcurrentHashMap<>();
+
+    private final AtomicBoolean pending = new AtomicBoolean();
+    private volatile long lastPrune = Clock.ticks();
+}
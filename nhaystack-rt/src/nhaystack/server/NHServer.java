@@ -20,10 +20,18 @@ import javax.baja.history.*;
 import javax.baja.naming.BOrd;
 import javax.baja.nre.util.TextUtil;
 import javax.baja.security.PermissionException;
+import javax.baja.spy.SpyWriter;
 import javax.baja.status.BStatus;
 import javax.baja.sys.*;
 import javax.baja.timezone.BTimeZone;
+import java.io.File;
 import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 import java.util.logging.*;
 
 /**
@@ -40,8 +48,18 @@ public class NHServer extends HServer
     this.cache = new Cache(this, schedMgr);
     this.tagMgr = new TagManager(this, service, spaceMgr, cache);
     this.nav = new Nav(service, spaceMgr, cache, tagMgr);
+    this.subscriptionMgr = new SubscriptionManager(this);
+    this.watchStore = new WatchStore(this, new File(Sys.getStationHome(), WatchStore.FILE_NAME));
     this.foxSessionMgr = new FoxSessionManager();
-    this.pointIO = new PointIO(service, cache, tagMgr, schedMgr, foxSessionMgr);
+    this.lastWriteStore = new LastWriteStore(this, new File(Sys.getStationHome(), LastWriteStore.FILE_NAME));
+    this.pointIO = new PointIO(service, cache, tagMgr, schedMgr, foxSessionMgr, lastWriteStore);
+    this.hisCache = new HisCache(service);
+    this.changeLog = new ChangeLog(this);
+
+    leaseTimer.scheduleWithFixedDelay(
+      this::sampleWatchRates, RATE_SAMPLE_INTERVAL, RATE_SAMPLE_INTERVAL, TimeUnit.MILLISECONDS);
+    leaseTimer.scheduleWithFixedDelay(
+      this::updateCacheStats, STATS_INTERVAL, STATS_INTERVAL, TimeUnit.MILLISECONDS);
   }
 
 ////////////////////////////////////////////////////////////////
@@ -188,6 +206,46 @@ public class NHServer extends HServer
     }
   }
 
+  /**
+   * Look up the HDict representations of many BComponents at once.  The
+   * components are resolved as a batch by TagManager.lookupComponents(),
+   * and for larger batches the dicts are built on the worker pool.  The
+   * row for an id that cannot be found is empty.
+   */
+  @Override
+  protected HGrid onReadByIds(HRef[] ids)
+  {
+    if (!cache.initialized())
+    {
+      throw new IllegalStateException(Cache.NOT_INITIALIZED);
+    }
+
+    if (LOG.isLoggable(Level.FINE))
+    {
+      LOG.fine("onReadByIds " + ids.length + " ids");
+    }
+
+    BComponent[] comps = tagMgr.lookupComponents(ids);
+    HDict[] recs = new HDict[ids.length];
+
+    List<Runnable> tasks = new ArrayList<>();
+    for (int from = 0; from < comps.length; from += READ_CHUNK_SIZE)
+    {
+      int start = from;
+      int end = Math.min(comps.length, from + READ_CHUNK_SIZE);
+      tasks.add(() ->
+      {
+        for (int i = start; i < end; i++)
+        {
+          recs[i] = comps[i] == null ? null : tagMgr.createTags(comps[i]);
+        }
+      });
+    }
+    runParallel(tasks);
+
+    return HGridBuilder.dictsToGrid(recs);
+  }
+
   /**
    * Return navigation tree children for given navId.
    * The grid must define the "navId" column.
@@ -216,6 +274,92 @@ public class NHServer extends HServer
     }
   }
 
+  /**
+   * Return the nav tree below the navId, down to maxDepth levels,
+   * in one grid; see Nav.onNavTree().
+   */
+  HGrid navTree(String navId, int maxDepth, HFilter filter)
+  {
+    if (!cache.initialized())
+    {
+      throw new IllegalStateException(Cache.NOT_INITIALIZED);
+    }
+
+    if (LOG.isLoggable(Level.FINE))
+    {
+      LOG.fine("navTree " + navId + ", maxDepth " + maxDepth + ", filter " + filter);
+    }
+
+    return nav.onNavTree(navId, maxDepth, filter, ref -> readById(HRef.make(ref), false));
+  }
+
+  /**
+   * Return the records that have changed since the version, or
+   * since ever if it is null; see ChangeLog.
+   * <p>
+   * The grid meta holds the current 'version', which the client passes
+   * in next time.  Each row is the current record, or just the id for a
+   * record that has been removed, along with its 'change' (added, updated
+   * or removed) and 'changeVersion'.  If the changes since the version are
+   * no longer known, the grid is empty and its meta has the 'resync'
+   * marker, and the client must read everything again.
+   */
+  HGrid changesSince(HNum version)
+  {
+    if (!cache.initialized())
+    {
+      throw new IllegalStateException(Cache.NOT_INITIALIZED);
+    }
+
+    // read the version first, so that nothing is missed
+    long current = changeLog.version();
+    List<ChangeLog.Change> changes = version == null ? null : changeLog.since((long) version.val);
+
+    HDictBuilder meta = new HDictBuilder().add("version", HNum.make(current));
+    if (changes == null)
+    {
+      meta.add("resync");
+      return HGridBuilder.dictsToGrid(meta.toDict(), EMPTY_HDICT_ARR);
+    }
+
+    if (LOG.isLoggable(Level.FINE))
+    {
+      LOG.fine("changesSince " + version + ": " + changes.size() + " changes");
+    }
+
+    // read the records that are still there in one go
+    HRef[] ids = new HRef[changes.size()];
+    for (int i = 0; i < ids.length; i++)
+    {
+      ids[i] = changes.get(i).ref();
+    }
+    HGrid recs = readByIds(ids, false);
+
+    HDict[] rows = new HDict[ids.length];
+    for (int i = 0; i < rows.length; i++)
+    {
+      ChangeLog.Change change = changes.get(i);
+      HRow rec = recs.row(i);
+
+      // a record that cannot be read is gone, as far as the client knows
+      boolean removed = change.kind.equals(ChangeLog.REMOVED) || !rec.has("id");
+      HDictBuilder hdb = new HDictBuilder();
+      if (removed)
+      {
+        hdb.add("id", ids[i]);
+      }
+      else
+      {
+        hdb.add(rec);
+      }
+      hdb.add("change", removed ? ChangeLog.REMOVED : change.kind);
+      hdb.add("changeVersion", HNum.make(change.version));
+      rows[i] = hdb.toDict();
+    }
+
+    return HGridBuilder.dictsToGrid(meta.toDict(), rows);
+  }
+
   /**
    * Open a new watch.
    */
@@ -241,6 +385,7 @@ public class NHServer extends HServer
         watches.put(watch.id(), watch);
         service.setWatchCount(watches.size());
       }
+      watchStore.changed();
 
       return watch;
     }
@@ -326,12 +471,33 @@ public class NHServer extends HServer
     pointIO.onPointWrite(rec, level, val, who, dur, opts);
   }
 
+  /**
+   * Write many points at once; see PointIO.onPointWriteMulti().
+   */
+  HGrid pointWriteMulti(HRef[] ids, HGrid req)
+  {
+    return pointIO.onPointWriteMulti(ids, req);
+  }
+
   /**
    * Read the history for the given BComponent.
    * The items wil be exclusive of start and inclusive of end time.
    */
   @Override
   public HHisItem[] onHisRead(HDict rec, HDateTimeRange range)
+  {
+    ArrayList<HHisItem> arr = new ArrayList<>();
+    hisRead(rec, range, (ts, val) -> arr.add(HHisItem.make(ts, val)));
+    return arr.toArray(EMPTY_HIS_ITEM_ARR);
+  }
+
+  /**
+   * Read the history for the given BComponent, handing each item to the
+   * sink as soon as it has been read from the history, rather than
+   * collecting them.  The items wil be exclusive of start and inclusive
+   * of end time.
+   */
+  void hisRead(HDict rec, HDateTimeRange range, HisSink sink)
   {
     if (!cache.initialized())
     {
@@ -340,7 +506,7 @@ public class NHServer extends HServer
 
     if (LOG.isLoggable(Level.FINE))
     {
-      LOG.fine("onHisRead " + rec.id() + ", " + range);
+      LOG.fine("hisRead " + rec.id() + ", " + range);
     }
 
     try
@@ -348,11 +514,16 @@ public class NHServer extends HServer
       BHistoryConfig cfg = tagMgr.lookupHistoryConfig(rec.id());
       if (cfg == null)
       {
-        return EMPTY_HIS_ITEM_ARR;
+        return;
       }
 
       HStr unit = (HStr) rec.get("unit", false);
 
+      if (hisCache.isCacheable(cfg) && hisCache.read(cfg, range, unit, sink))
+      {
+        return;
+      }
+
       // ASSUMPTION: the tz in both ends of the range matches the
       // tz of the historized point, which in turn matches the
       // history's tz in its historyConfig.
@@ -372,12 +543,12 @@ public class NHServer extends HServer
 
         // this will be null if its not a BTrendRecord
         boolean isTrendRecord = cfg.getRecordType().getResolvedType().is(BTrendRecord.TYPE);
+        Type recType = cfg.getRecordType().getResolvedType();
 
         int recCounter = 0;
-        ArrayList<HHisItem> arr = new ArrayList<>();
         try (TableCursor<BHistoryRecord> cursor = table.cursor())
         {
-          // iterate over results and extract HHisItem's
+          // iterate over results and pass each item to the sink
           while (cursor.next())
           {
             recCounter++;
@@ -397,7 +568,6 @@ public class NHServer extends HServer
                 // extract value from BTrendRecord
                 BValue value = hrec.get("value");
 
-                Type recType = cfg.getRecordType().getResolvedType();
                 if (recType.is(BNumericTrendRecord.TYPE))
                 {
                   BNumber num = (BNumber) value;
@@ -428,27 +598,13 @@ public class NHServer extends HServer
               }
 
               // add item
-              arr.add(HHisItem.make(ts, val));
+              sink.add(ts, val);
             }
           }
         }
 
-        HHisItem[] items = arr.toArray(EMPTY_HIS_ITEM_ARR);
-        LOG.fine("Found " + recCounter + " items...");
-        if (items.length > 0)
-        {
-          LOG.fine("Start range check, is the found item (" + items[0].ts.millis() + ") after the queried item (" + range.start.millis() + ")?");
-          if (range.start.millis() < items[0].ts.millis())
-          {
-            LOG.fine("Start range check passed!");
-          }
-          else
-          {
-            LOG.fine("Start range check failed...");
-          }
-        }
         // done
-        return items;
+        LOG.fine("Found " + recCounter + " items...");
       }
     }
     catch (RuntimeException e)
@@ -463,6 +619,37 @@ public class NHServer extends HServer
    */
   @Override
   public void onHisWrite(HDict rec, HHisItem[] items)
+  {
+    checkHisWrite(rec, items, hisWrite(rec, items));
+  }
+
+  /**
+   * Throw if any of the items failed or was too late to be written.
+   */
+  static void checkHisWrite(HDict rec, HHisItem[] items, HisWriter.Result result)
+  {
+    int failed = result.firstFailure();
+    if (failed >= 0)
+    {
+      throw new BajaRuntimeException(
+        "Cannot write " + result.count(HisWriter.Outcome.FAILED) + " of " + items.length +
+        " items to " + rec.id() + ": " + result.errors[failed]);
+    }
+
+    int late = result.firstLate();
+    if (late >= 0)
+    {
+      throw new BajaRuntimeException(
+        "Cannot write " + result.count(HisWriter.Outcome.LATE) + " of " + items.length +
+        " items to " + rec.id() + ", the first at " + items[late].ts + ": " + result.errors[late]);
+    }
+  }
+
+  /**
+   * Write the history for the given BComponent, and return what became
+   * of each item.  The items may be in any order; see HisWriter.
+   */
+  HisWriter.Result hisWrite(HDict rec, HHisItem[] items)
   {
     if (!cache.initialized())
     {
@@ -471,7 +658,7 @@ public class NHServer extends HServer
 
     if (LOG.isLoggable(Level.FINE))
     {
-      LOG.fine("onHisWrite " + rec.id());
+      LOG.fine("hisWrite " + rec.id() + ", " + items.length + " items");
     }
 
     BHistoryConfig cfg = tagMgr.lookupHistoryConfig(rec.id());
@@ -483,12 +670,13 @@ public class NHServer extends HServer
       throw new PermissionException("Cannot write to " + rec.id());
     }
 
-    try (HistorySpaceConnection conn = service.getHistoryDb().getConnection(null))
+    try
+    {
+      return new HisWriter(service.getHistoryDb(), cfg, rec.getStr("kind")).write(items);
+    }
+    finally
     {
-      BIHistory history = conn.getHistory(cfg.getId());
-      String kind = rec.getStr("kind");
-      for (HHisItem item : items)
-        conn.append(history, makeTrendRecord(kind, item.ts, item.val));
+      hisCache.invalidate(cfg.getId());
     }
   }
 
@@ -685,6 +873,28 @@ public class NHServer extends HServer
       watches.remove(watchId);
       service.setWatchCount(watches.size());
     }
+    watchStore.changed();
+  }
+
+  /**
+   * Re-open a watch that was saved by the WatchStore, keeping its
+   * original id and user.  Return null if a watch with that id is
+   * already open.
+   */
+  NHWatch restoreWatch(String watchId, String dis, long lease, String user)
+  {
+    synchronized (watches)
+    {
+      if (watches.containsKey(watchId))
+      {
+        return null;
+      }
+
+      NHWatch watch = new NHWatch(this, watchId, dis, lease, user);
+      watches.put(watchId, watch);
+      service.setWatchCount(watches.size());
+      return watch;
+    }
   }
 
   void removeBrokenRefs()
@@ -798,6 +1008,177 @@ public class NHServer extends HServer
     }
   }
 
+  /**
+   * Schedule a check of the watch's lease on the timer that is shared
+   * by every watch.
+   */
+  void scheduleLeaseCheck(NHWatch watch, long delay)
+  {
+    leaseTimer.schedule(watch::checkLease, delay, TimeUnit.MILLISECONDS);
+  }
+
+  /**
+   * Measure the event rate of every open watch; see NHWatch.sampleRate().
+   */
+  private void sampleWatchRates()
+  {
+    NHWatch[] arr;
+    synchronized (watches)
+    {
+      arr = watches.values().toArray(new NHWatch[0]);
+    }
+
+    for (NHWatch watch : arr)
+    {
+      watch.sampleRate();
+    }
+  }
+
+  /**
+   * Report the statistics of the caches in BNHaystackStats.  This is done
+   * on a timer, rather than on every read, since setting a property of
+   * the stats fires a component event.
+   */
+  private void updateCacheStats()
+  {
+    try
+    {
+      hisCache.updateStats();
+      nav.updateCacheStats();
+    }
+    catch (RuntimeException e)
+    {
+      LOG.log(Level.WARNING, "Cannot update cache stats", e);
+    }
+  }
+
+  /**
+   * Write the statistics of every open watch to the spy page.
+   */
+  void spyWatches(SpyWriter out) throws Exception
+  {
+    NHWatch[] arr;
+    synchronized (watches)
+    {
+      arr = watches.values().toArray(new NHWatch[0]);
+    }
+
+    out.startProps();
+    out.trTitle("Watches", 2);
+    out.prop("open", arr.length);
+    out.prop("subscribedPoints", subscriptionMgr.subscribedCount());
+    out.endProps();
+
+    for (NHWatch watch : arr)
+    {
+      HDict stats = watch.stats();
+
+      out.startProps();
+      out.trTitle("Watch " + watch.id(), 2);
+      for (Iterator<?> it = stats.iterator(); it.hasNext(); )
+      {
+        Map.Entry<?, ?> entry = (Map.Entry<?, ?>) it.next();
+        if (!entry.getKey().equals("id"))
+          out.prop(entry.getKey(), entry.getValue());
+      }
+      out.endProps();
+    }
+  }
+
+  /**
+   * Schedule some other watch housekeeping on the lease timer.
+   */
+  void scheduleWatchTask(Runnable task, long delay)
+  {
+    leaseTimer.schedule(task, delay, TimeUnit.MILLISECONDS);
+  }
+
+////////////////////////////////////////////////////////////////
+// workers
+////////////////////////////////////////////////////////////////
+
+  /**
+   * Run the tasks on the shared pool of worker threads, and wait for
+   * all of them to finish; see runParallel(ExecutorService, List).
+   * <p>
+   * This must not be called from one of the worker threads.
+   */
+  void runParallel(List<Runnable> tasks)
+  {
+    runParallel(workerPool, tasks);
+  }
+
+  /**
+   * Run the tasks on the pool, and wait for all of them to finish.  Each
+   * task runs with the calling thread's Context, which is handed to the
+   * task itself, so that tasks from different callers never see each
+   * other's Context.  The first exception thrown by a task is rethrown here.
+   */
+  static void runParallel(ExecutorService pool, List<Runnable> tasks)
+  {
+    if (tasks.size() == 1)
+    {
+      tasks.get(0).run();
+      return;
+    }
+
+    Context cx = ThreadContext.getContext(Thread.currentThread());
+    List<Future<?>> futures = new ArrayList<>(tasks.size());
+    for (Runnable task : tasks)
+    {
+      futures.add(pool.submit(() ->
+      {
+        Thread thread = Thread.currentThread();
+        if (cx != null)
+        {
+          ThreadContext.putContext(thread, cx);
+        }
+        else
+        {
+          ThreadContext.removeContext(thread);
+        }
+
+        try
+        {
+          task.run();
+        }
+        finally
+        {
+          ThreadContext.removeContext(thread);
+        }
+      }));
+    }
+
+    for (Future<?> future : futures)
+    {
+      try
+      {
+        future.get();
+      }
+      catch (InterruptedException e)
+      {
+        Thread.currentThread().interrupt();
+        throw new BajaRuntimeException("Interrupted", e);
+      }
+      catch (ExecutionException e)
+      {
+        if (e.getCause() instanceof RuntimeException)
+          throw (RuntimeException) e.getCause();
+        throw new BajaRuntimeException(e.getCause().getMessage(), e.getCause());
+      }
+    }
+  }
+
+  /**
+   * Stop the lease timer and the worker threads, when the service stops.
+   * A new NHServer is made each time the service starts.
+   */
+  void close()
+  {
+    leaseTimer.shutdownNow();
+    workerPool.shutdownNow();
+  }
+
 ////////////////////////////////////////////////////////////////
 // trend record
 ////////////////////////////////////////////////////////////////
@@ -859,6 +1240,31 @@ public class NHServer extends HServer
     return schedMgr;
   }
 
+  SubscriptionManager getSubscriptionManager()
+  {
+    return subscriptionMgr;
+  }
+
+  WatchStore getWatchStore()
+  {
+    return watchStore;
+  }
+
+  FoxSessionManager getFoxSessionManager()
+  {
+    return foxSessionMgr;
+  }
+
+  LastWriteStore getLastWriteStore()
+  {
+    return lastWriteStore;
+  }
+
+  ChangeLog getChangeLog()
+  {
+    return changeLog;
+  }
+
 ////////////////////////////////////////////////////////////////
 // Attributes 
 ////////////////////////////////////////////////////////////////
@@ -866,12 +1272,37 @@ public class NHServer extends HServer
   private static final Logger LOG = Logger.getLogger("nhaystack");
   private static final Logger LOG_WATCH = Logger.getLogger("nhaystack.watch");
 
-  private static final String LAST_WRITE = "haystackLastWrite";
   private static final HHisItem[] EMPTY_HIS_ITEM_ARR = new HHisItem[0];
+  private static final HDict[] EMPTY_HDICT_ARR = new HDict[0];
 
-  private static final HOp[] OPS = {HStdOps.about, HStdOps.ops, HStdOps.formats, HStdOps.read, HStdOps.nav, HStdOps.watchSub, HStdOps.watchUnsub, HStdOps.watchPoll, HStdOps.pointWrite, HStdOps.hisRead, HStdOps.hisWrite, HStdOps.invokeAction, new NHServerOps.ExtendedReadOp(), new NHServerOps.ExtendedOp(), new AlarmAckOp(), new AlarmReadOp()};
+  // measure the event rate of the watches this often
+  private static final long RATE_SAMPLE_INTERVAL = 10 * 1000L;
+
+  // report the statistics of the caches this often
+  private static final long STATS_INTERVAL = 5 * 1000L;
+
+  // build this many dicts per task in onReadByIds()
+  private static final int READ_CHUNK_SIZE = 200;
+
+  private static final HOp[] OPS = {HStdOps.about, HStdOps.ops, HStdOps.formats, HStdOps.read, HStdOps.nav, new NHServerOps.NavTreeOp(), new NHServerOps.SepNavExportOp(), new NHServerOps.ChangesSinceOp(), new NHServerOps.WatchSubOp(), HStdOps.watchUnsub, new NHServerOps.WatchPollOp(), HStdOps.pointWrite, new NHServerOps.PointWriteMultiOp(), new NHServerOps.HisReadOp(), new NHServerOps.HisReadMultiOp(), new NHServerOps.HisWriteOp(), new NHServerOps.HisWriteMultiOp(), HStdOps.invokeAction, new NHServerOps.ExtendedReadOp(), new NHServerOps.ExtendedOp(), new AlarmAckOp(), new AlarmReadOp()};
 
   private final Map<String, NHWatch> watches = new HashMap<>();
+  private final ScheduledExecutorService leaseTimer = Executors.newSingleThreadScheduledExecutor(r ->
+  {
+    Thread thread = new Thread(r, "NHaystack:WatchLeases");
+    thread.setDaemon(true);
+    return thread;
+  });
+
+  private static final int WORKER_COUNT =
+    Math.max(2, Math.min(8, Runtime.getRuntime().availableProcessors()));
+
+  private final ExecutorService workerPool = Executors.newFixedThreadPool(WORKER_COUNT, r ->
+  {
+    Thread thread = new Thread(r, "NHaystack:Worker");
+    thread.setDaemon(true);
+    return thread;
+  });
 
   private final BNHaystackService service;
   private final SpaceManager spaceMgr;
@@ -879,7 +1310,12 @@ public class NHServer extends HServer
   private final Nav nav;
   private final TagManager tagMgr;
   private final ScheduleManager schedMgr;
+  private final SubscriptionManager subscriptionMgr;
+  private final WatchStore watchStore;
+  private final LastWriteStore lastWriteStore;
   private final FoxSessionManager foxSessionMgr;
   private final PointIO pointIO;
+  private final HisCache hisCache;
+  private final ChangeLog changeLog;
 }
 
@@ -23,6 +23,8 @@ import javax.baja.naming.BOrd;
 import javax.baja.nre.util.*;
 import javax.baja.security.PermissionException;
 import javax.baja.sys.*;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
 import java.util.*;
 import java.util.Map.Entry;
 import java.util.logging.Logger;
@@ -125,6 +127,732 @@ final class NHServerOps implements NHaystackConst
     }
   }
 
+//////////////////////////////////////////////////////////////////////////
+// WatchSubOp
+//////////////////////////////////////////////////////////////////////////
+
+  /**
+   * Replaces the standard watchSub op, adding optional 'minInterval'
+   * and 'deadband' options (see {@link CovFilter}).  Options in the
+   * request meta apply to every id in the request, and options in an
+   * id's row override them for that id.
+   */
+  static class WatchSubOp extends HOp
+  {
+    @Override
+    public String name()
+    {
+      return "watchSub";
+    }
+
+    @Override
+    public String summary()
+    {
+      return "Watch subscription";
+    }
+
+    @Override
+    public HGrid onService(HServer db, HGrid req)
+    {
+      HDict meta = req.meta();
+      String watchId = meta.has("watchId") ? meta.getStr("watchId") : null;
+      HNum lease = meta.has("lease") ? (HNum) meta.get("lease") : null;
+
+      HWatch watch = watchId == null ?
+        db.watchOpen(meta.getStr("watchDis"), lease) :
+        db.watch(watchId);
+
+      CovFilter defaults = CovFilter.make(meta, null);
+
+      HRef[] ids = new HRef[req.numRows()];
+      CovFilter[] filters = new CovFilter[req.numRows()];
+      for (int i = 0; i < ids.length; i++)
+      {
+        HRow row = req.row(i);
+        ids[i] = valToId(db, row.get("id"));
+        filters[i] = CovFilter.make(row, defaults);
+      }
+
+      return ((NHWatch) watch).sub(ids, filters);
+    }
+  }
+
+//////////////////////////////////////////////////////////////////////////
+// HisReadOp
+//////////////////////////////////////////////////////////////////////////
+
+  /**
+   * Replaces the standard hisRead op.  Over HTTP, a Zinc or JSON
+   * response is written out by HisReadStream as the history is read,
+   * instead of the whole grid being built in memory first.
+   * <p>
+   * An optional 'interval' duration and 'fold' name (avg, min, max,
+   * sum, count, first, last or twavg; avg by default) roll the history
+   * up into one item per interval as it is read.  See HisRollup.
+   * <p>
+   * An optional 'maxPoints' thins the history out to at most that many
+   * items, with the 'downsample' method 'lttb' (the default) or
+   * 'minmax'.  See HisDownsample.
+   */
+  static class HisReadOp extends HOp
+  {
+    @Override
+    public String name()
+    {
+      return "hisRead";
+    }
+
+    @Override
+    public String summary()
+    {
+      return "Read time series from historian";
+    }
+
+    @Override
+    public void onService(HServer db, HttpServletRequest req, HttpServletResponse res) throws Exception
+    {
+      if (HisReadStream.canStream(req))
+      {
+        HisReadStream.service((NHServer) db, req, res);
+      }
+      else
+      {
+        super.onService(db, req, res);
+      }
+    }
+
+    @Override
+    public HGrid onService(HServer db, HGrid req)
+    {
+      if (req.isEmpty())
+      {
+        throw new IllegalArgumentException("Request has no rows");
+      }
+
+      HRow row = req.row(0);
+      if (!row.has(HisRollup.INTERVAL) && !row.has(HisDownsample.MAX_POINTS))
+      {
+        return db.hisRead(valToId(db, row.get("id")), row.getStr("range"));
+      }
+
+      // rolled up and/or downsampled
+      HDict rec = db.readById(valToId(db, row.get("id")));
+      HDateTimeRange range = HisReadStream.toRange(rec, row.getStr("range"));
+
+      HDictBuilder meta = new HDictBuilder()
+        .add("id", rec.id())
+        .add("hisStart", range.start)
+        .add("hisEnd", range.end);
+
+      ArrayList<HHisItem> items = new ArrayList<>();
+      HisSink sink = HisReadStream.wrap(row, rec, range, (ts, val) -> items.add(HHisItem.make(ts, val)), meta);
+      ((NHServer) db).hisRead(rec, range, sink);
+      sink.finish();
+
+      return HGridBuilder.hisItemsToGrid(meta.toDict(), items.toArray(new HHisItem[0]));
+    }
+  }
+
+//////////////////////////////////////////////////////////////////////////
+// HisReadMultiOp
+//////////////////////////////////////////////////////////////////////////
+
+  /**
+   * Reads the histories of several points over the same range in one
+   * request.  The ids are given one per row, and the 'range', along with
+   * the rollup and downsampling options of hisRead, either in the grid
+   * meta or in the first row.  The histories are read concurrently
+   * on the server's worker pool.
+   * <p>
+   * By default the result is a wide grid, with a 'ts' column and columns
+   * 'v0' to 'vN' holding the id of each point in their meta, joined on
+   * timestamp.  All the points of a wide grid must be in the same time
+   * zone.  With layout:"stacked" it is a grid of 'id', 'ts' and 'val'
+   * rows instead, one point after another, each in its own time zone.
+   * The hisStart and hisEnd of the grid cover the ranges of all the points.
+   * <p>
+   * Since the items are all held in memory, at most MAX_IDS
+   * points may be read at once.
+   */
+  static class HisReadMultiOp extends HOp
+  {
+    @Override
+    public String name()
+    {
+      return "hisReadMulti";
+    }
+
+    @Override
+    public String summary()
+    {
+      return "Read time series of several points from historian";
+    }
+
+    @Override
+    public HGrid onService(HServer db, HGrid req)
+    {
+      if (req.isEmpty())
+      {
+        throw new IllegalArgumentException("Request has no rows");
+      }
+
+      int n = req.numRows();
+      if (n > MAX_IDS)
+      {
+        throw new IllegalArgumentException("Too many ids: " + n + ", the most is " + MAX_IDS);
+      }
+
+      NHServer server = (NHServer) db;
+      HDict opts = req.meta().has("range") ? req.meta() : req.row(0);
+      String range = opts.getStr("range");
+      boolean stacked = opts.has("layout") && opts.getStr("layout").equals("stacked");
+
+      // resolve everything before reading anything
+      HDict[] recs = new HDict[n];
+      HDateTimeRange[] ranges = new HDateTimeRange[n];
+      List<List<HHisItem>> items = new ArrayList<>(n);
+      List<Runnable> tasks = new ArrayList<>(n);
+      HDictBuilder meta = new HDictBuilder();
+      for (int i = 0; i < n; i++)
+      {
+        HDict rec = db.readById(valToId(db, req.row(i).get("id")));
+        HDateTimeRange recRange = HisReadStream.toRange(rec, range);
+        if (!stacked && i > 0 && !recRange.start.tz.name.equals(ranges[0].start.tz.name))
+        {
+          throw new IllegalArgumentException(
+            "Points in different time zones need layout:\"stacked\": " +
+            rec.id() + " is in " + recRange.start.tz + ", " + recs[0].id() + " is in " + ranges[0].start.tz);
+        }
+
+        List<HHisItem> list = new ArrayList<>();
+        HisSink sink = HisReadStream.wrap(opts, rec, recRange,
+          (ts, val) -> list.add(HHisItem.make(ts, val)), i == 0 ? meta : null);
+
+        recs[i] = rec;
+        ranges[i] = recRange;
+        items.add(list);
+        tasks.add(() ->
+        {
+          server.hisRead(rec, recRange, sink);
+          sink.finish();
+        });
+      }
+
+      server.runParallel(tasks);
+
+      HDateTime start = ranges[0].start;
+      HDateTime end = ranges[0].end;
+      for (HDateTimeRange recRange : ranges)
+      {
+        if (recRange.start.millis() < start.millis()) start = recRange.start;
+        if (recRange.end.millis() > end.millis()) end = recRange.end;
+      }
+      meta.add("hisStart", start);
+      meta.add("hisEnd", end);
+
+      return stacked ?
+        toStackedGrid(meta.toDict(), recs, items) :
+        toWideGrid(meta.toDict(), recs, items, ranges[0].start.tz);
+    }
+
+    private static HGrid toWideGrid(HDict meta, HDict[] recs, List<List<HHisItem>> items, HTimeZone tz)
+    {
+      int n = recs.length;
+      HGridBuilder gb = new HGridBuilder();
+      gb.meta().add(meta);
+      gb.addCol("ts");
+      for (int i = 0; i < n; i++)
+      {
+        gb.addCol("v" + i).add("id", recs[i].id());
+      }
+
+      // join the columns on timestamp; each one is already in order
+      int[] pos = new int[n];
+      while (true)
+      {
+        long next = Long.MAX_VALUE;
+        for (int i = 0; i < n; i++)
+        {
+          if (pos[i] < items.get(i).size())
+          {
+            next = Math.min(next, items.get(i).get(pos[i]).ts.millis());
+          }
+        }
+        if (next == Long.MAX_VALUE)
+        {
+          break;
+        }
+
+        HVal[] cells = new HVal[n + 1];
+        cells[0] = HDateTime.make(next, tz);
+        for (int i = 0; i < n; i++)
+        {
+          List<HHisItem> col = items.get(i);
+          if (pos[i] < col.size() && col.get(pos[i]).ts.millis() == next)
+          {
+            cells[i + 1] = col.get(pos[i]++).val;
+          }
+        }
+        gb.addRow(cells);
+      }
+
+      return gb.toGrid();
+    }
+
+    private static HGrid toStackedGrid(HDict meta, HDict[] recs, List<List<HHisItem>> items)
+    {
+      HGridBuilder gb = new HGridBuilder();
+      gb.meta().add(meta);
+      gb.addCol("id");
+      gb.addCol("ts");
+      gb.addCol("val");
+      for (int i = 0; i < recs.length; i++)
+      {
+        HRef id = recs[i].id();
+        for (HHisItem item : items.get(i))
+        {
+          gb.addRow(new HVal[] {id, item.ts, item.val});
+        }
+      }
+      return gb.toGrid();
+    }
+
+    // the most points that may be read at once
+    private static final int MAX_IDS = 500;
+  }
+
+//////////////////////////////////////////////////////////////////////////
+// HisWriteOp
+//////////////////////////////////////////////////////////////////////////
+
+  /**
+   * Replaces the standard hisWrite op.  The items may be given in any
+   * order and may overlap what is already in the history; see HisWriter.
+   * Like the standard op, the request fails if any item failed or was
+   * too late to be written, since clients such as HClient do not look at
+   * the response.  Otherwise the response has a row for each item, in
+   * the order they were given, with its 'ts', its 'result' (appended,
+   * duplicate, late or failed) and an 'err' message if it was not
+   * written, and the number of items with each result in its meta.
+   * A request whose meta has the 'results' marker gets that grid back
+   * even when some items were not written.
+   */
+  static class HisWriteOp extends HOp
+  {
+    @Override
+    public String name()
+    {
+      return "hisWrite";
+    }
+
+    @Override
+    public String summary()
+    {
+      return "Write time series data to historian";
+    }
+
+    @Override
+    public HGrid onService(HServer db, HGrid req)
+    {
+      if (req.isEmpty())
+      {
+        throw new IllegalArgumentException("Request has no rows");
+      }
+
+      HRef id = valToId(db, req.meta().get("id"));
+      HHisItem[] items = HHisItem.gridToItems(req);
+      HDict rec = checkHisWrite(db, id, items);
+
+      HisWriter.Result result = ((NHServer) db).hisWrite(rec, items);
+      if (!req.meta().has("results"))
+      {
+        NHServer.checkHisWrite(rec, items, result);
+      }
+      return toResultGrid(rec, items, result);
+    }
+
+    /**
+     * Make the same checks as HServer.hisWrite(), and return the rec.
+     */
+    static HDict checkHisWrite(HServer db, HRef id, HHisItem[] items)
+    {
+      HDict rec = db.readById(id);
+      if (rec.missing("his"))
+      {
+        throw new UnknownNameException("Entity missing 'his' tag: " + rec.dis());
+      }
+
+      HTimeZone tz = rec.has("tz") ? HTimeZone.make(rec.getStr("tz"), false) : null;
+      if (tz == null)
+      {
+        throw new UnknownNameException("Rec missing or invalid 'tz' tag: " + rec.dis());
+      }
+
+      for (HHisItem item : items)
+      {
+        if (!item.ts.tz.equals(tz))
+        {
+          throw new IllegalArgumentException("item.tz != rec.tz: " + item.ts.tz + " != " + tz);
+        }
+      }
+      return rec;
+    }
+
+    static HGrid toResultGrid(HDict rec, HHisItem[] items, HisWriter.Result result)
+    {
+      HGridBuilder gb = new HGridBuilder();
+      gb.meta().add("id", rec.id());
+      for (HisWriter.Outcome outcome : HisWriter.Outcome.values())
+      {
+        gb.meta().add(outcome.name, result.count(outcome));
+      }
+
+      gb.addCol("ts");
+      gb.addCol("result");
+      gb.addCol("err");
+      for (int i = 0; i < items.length; i++)
+      {
+        gb.addRow(new HVal[] {
+          items[i].ts,
+          HStr.make(result.outcomes[i].name),
+          result.errors[i] == null ? null : HStr.make(result.errors[i])});
+      }
+      return gb.toGrid();
+    }
+  }
+
+//////////////////////////////////////////////////////////////////////////
+// HisWriteMultiOp
+//////////////////////////////////////////////////////////////////////////
+
+  /**
+   * Writes items to many histories in one request, for gateways that
+   * are backfilling after an outage.  The request is a stacked grid with
+   * 'id', 'ts' and 'val' columns.  The rows are grouped by id, each group
+   * is checked and written like a hisWrite, and the groups are written
+   * concurrently on the server's worker pool.
+   * <p>
+   * The response has a row per id, in the order the ids first appear,
+   * with the number of items with each result (see HisWriteOp), or an
+   * 'err' message if the history could not be written at all.
+   */
+  static class HisWriteMultiOp extends HOp
+  {
+    @Override
+    public String name()
+    {
+      return "hisWriteMulti";
+    }
+
+    @Override
+    public String summary()
+    {
+      return "Write time series data to several histories";
+    }
+
+    @Override
+    public HGrid onService(HServer db, HGrid req)
+    {
+      if (req.isEmpty())
+      {
+        throw new IllegalArgumentException("Request has no rows");
+      }
+
+      // group the rows by id
+      Map<HRef, List<HHisItem>> groups = new LinkedHashMap<>();
+      for (int i = 0; i < req.numRows(); i++)
+      {
+        HRow row = req.row(i);
+        HRef id = valToId(db, row.get("id"));
+        groups.computeIfAbsent(id, k -> new ArrayList<>())
+          .add(HHisItem.make((HDateTime) row.get("ts"), row.get("val")));
+      }
+
+      NHServer server = (NHServer) db;
+      HRef[] ids = groups.keySet().toArray(new HRef[0]);
+      HisWriter.Result[] results = new HisWriter.Result[ids.length];
+      String[] errors = new String[ids.length];
+
+      List<Runnable> tasks = new ArrayList<>(ids.length);
+      for (int i = 0; i < ids.length; i++)
+      {
+        int n = i;
+        tasks.add(() ->
+        {
+          try
+          {
+            HHisItem[] items = groups.get(ids[n]).toArray(new HHisItem[0]);
+            HDict rec = HisWriteOp.checkHisWrite(db, ids[n], items);
+            results[n] = server.hisWrite(rec, items);
+          }
+          catch (RuntimeException e)
+          {
+            LOG.warning("hisWriteMulti cannot write " + ids[n] + ": " + e);
+            errors[n] = e.toString();
+          }
+        });
+      }
+      server.runParallel(tasks);
+
+      HGridBuilder gb = new HGridBuilder();
+      gb.addCol("id");
+      for (HisWriter.Outcome outcome : HisWriter.Outcome.values())
+      {
+        gb.addCol(outcome.name);
+      }
+      gb.addCol("err");
+
+      int numOutcomes = HisWriter.Outcome.values().length;
+      for (int i = 0; i < ids.length; i++)
+      {
+        HVal[] cells = new HVal[numOutcomes + 2];
+        cells[0] = ids[i];
+        if (results[i] != null)
+        {
+          for (HisWriter.Outcome outcome : HisWriter.Outcome.values())
+          {
+            cells[outcome.ordinal() + 1] = HNum.make(results[i].count(outcome));
+          }
+        }
+        else
+        {
+          cells[numOutcomes + 1] = HStr.make(errors[i]);
+        }
+        gb.addRow(cells);
+      }
+      return gb.toGrid();
+    }
+  }
+
+//////////////////////////////////////////////////////////////////////////
+// PointWriteMultiOp
+//////////////////////////////////////////////////////////////////////////
+
+  /**
+   * Writes many points in one request, e.g. for a demand response event.
+   * Each row of the request has the 'id', 'level', 'val' and 'who' of a
+   * write, as for pointWrite; a missing 'val' releases the level.  A
+   * 'duration' is ignored, as it is for pointWrite.  The response has
+   * the 'id', 'status' and 'err' of each row; a failed row does not stop
+   * the others from being written.
+   */
+  static class PointWriteMultiOp extends HOp
+  {
+    @Override
+    public String name()
+    {
+      return "pointWriteMulti";
+    }
+
+    @Override
+    public String summary()
+    {
+      return "Write to many writable points";
+    }
+
+    @Override
+    public HGrid onService(HServer db, HGrid req)
+    {
+      if (req.isEmpty())
+      {
+        throw new IllegalArgumentException("Request has no rows");
+      }
+
+      HRef[] ids = new HRef[req.numRows()];
+      for (int i = 0; i < ids.length; i++)
+      {
+        ids[i] = valToId(db, req.row(i).get("id"));
+      }
+      return ((NHServer) db).pointWriteMulti(ids, req);
+    }
+  }
+
+//////////////////////////////////////////////////////////////////////////
+// NavTreeOp
+//////////////////////////////////////////////////////////////////////////
+
+  /**
+   * Returns a whole subtree of the nav tree in one call, rather than one
+   * nav request per level.  The request row has the root 'navId' (or none
+   * for the roots), an optional 'maxDepth', which defaults to 3 so that
+   * sep:/ and his:/ are walked all the way down, and an optional 'filter'
+   * that the rows must match.  The response is the rows that nav would
+   * have returned for each level, with a 'parentNavId' column.  Starting
+   * from the roots does not walk down into slot:/, and a tree with more
+   * than Nav.MAX_NAV_TREE_ROWS rows is refused.
+   */
+  static class NavTreeOp extends HOp
+  {
+    @Override
+    public String name()
+    {
+      return "navTree";
+    }
+
+    @Override
+    public String summary()
+    {
+      return "Navigate a whole subtree";
+    }
+
+    @Override
+    public HGrid onService(HServer db, HGrid req)
+    {
+      HDict row = req.isEmpty() ? HDict.EMPTY : req.row(0);
+
+      HVal navId = row.get("navId", false);
+      int maxDepth = row.has("maxDepth") ? row.getInt("maxDepth") : DEFAULT_NAV_DEPTH;
+      if (maxDepth < 1)
+      {
+        throw new IllegalArgumentException("'maxDepth' must be at least 1: " + maxDepth);
+      }
+      HFilter filter = row.has("filter") ? HFilter.make(row.getStr("filter")) : null;
+
+      return ((NHServer) db).navTree(
+        navId instanceof HStr ? ((HStr) navId).val : null,
+        maxDepth,
+        filter);
+    }
+
+    private static final int DEFAULT_NAV_DEPTH = 3;
+  }
+
+//////////////////////////////////////////////////////////////////////////
+// SepNavExportOp
+//////////////////////////////////////////////////////////////////////////
+
+  /**
+   * Exports the whole site-equip-point nav tree.  A GET is answered by
+   * SepNavExport, which streams the tree as XML or Zinc.  A posted
+   * request grid, with an optional 'site' list of site navNames in its
+   * first row, gets the Zinc rows back as a regular grid.
+   */
+  static class SepNavExportOp extends HOp
+  {
+    @Override
+    public String name()
+    {
+      return SepNavExport.NAME;
+    }
+
+    @Override
+    public String summary()
+    {
+      return "Export the site-equip-point tree";
+    }
+
+    @Override
+    public void onService(HServer db, HttpServletRequest req, HttpServletResponse res) throws Exception
+    {
+      if (req.getMethod().equals("GET"))
+      {
+        SepNavExport.service((NHServer) db, req, res);
+      }
+      else
+      {
+        super.onService(db, req, res);
+      }
+    }
+
+    @Override
+    public HGrid onService(HServer db, HGrid req)
+    {
+      NHServer server = (NHServer) db;
+      if (!server.getCache().initialized())
+      {
+        throw new IllegalStateException(Cache.NOT_INITIALIZED);
+      }
+
+      HDict row = req.isEmpty() ? HDict.EMPTY : req.row(0);
+      String site = row.has("site") ? row.getStr("site") : null;
+      return SepNavExport.toGrid(server, SepNavExport.siteNames(site));
+    }
+  }
+
+//////////////////////////////////////////////////////////////////////////
+// ChangesSinceOp
+//////////////////////////////////////////////////////////////////////////
+
+  /**
+   * Returns the records that have been added, updated or removed since
+   * the 'version' in the first row of the request, so that a client can
+   * keep a copy of the tag database up to date.  Without a version, it
+   * only returns the current version, with the 'resync' marker.
+   */
+  static class ChangesSinceOp extends HOp
+  {
+    @Override
+    public String name()
+    {
+      return "changesSince";
+    }
+
+    @Override
+    public String summary()
+    {
+      return "Records changed since a version";
+    }
+
+    @Override
+    public HGrid onService(HServer db, HGrid req)
+    {
+      HDict row = req.isEmpty() ? HDict.EMPTY : req.row(0);
+      HVal version = row.get("version", false);
+      if (version != null && !(version instanceof HNum))
+      {
+        throw new IllegalArgumentException("'version' must be a number: " + version);
+      }
+
+      return ((NHServer) db).changesSince((HNum) version);
+    }
+  }
+
+//////////////////////////////////////////////////////////////////////////
+// WatchPollOp
+//////////////////////////////////////////////////////////////////////////
+
+  /**
+   * Replaces the standard watchPoll op, adding an optional 'timeout'
+   * to the request meta.  If there are no pending changes, a poll with a
+   * timeout waits for the first change to arrive, or for the timeout to
+   * expire, before responding.  A timeout without a unit is in millis.
+   */
+  static class WatchPollOp extends HOp
+  {
+    @Override
+    public String name()
+    {
+      return "watchPoll";
+    }
+
+    @Override
+    public String summary()
+    {
+      return "Watch poll cov or refresh";
+    }
+
+    @Override
+    public HGrid onService(HServer db, HGrid req)
+    {
+      String watchId = req.meta().getStr("watchId");
+      NHWatch watch = (NHWatch) db.watch(watchId);
+
+      if (req.meta().has("refresh"))
+      {
+        return watch.pollRefresh();
+      }
+
+      HNum timeout = (HNum) req.meta().get("timeout", false);
+      if (timeout == null)
+      {
+        return watch.pollChanges();
+      }
+
+      long millis = timeout.unit == null ? (long) timeout.val : timeout.millis();
+      return watch.pollChanges(millis);
+    }
+  }
+
 //////////////////////////////////////////////////////////////////////////
 // ExtendedOp
 //////////////////////////////////////////////////////////////////////////
@@ -212,6 +940,9 @@ final class NHServerOps implements NHaystackConst
         case "showWatches":
           result = showWatches(server, params);
           break;
+        case "watchStats":
+          result = watchStats(server, params);
+          break;
         case "uniqueTags":
           result = uniqueTags(server, params);
           break;
@@ -1321,6 +2052,32 @@ outer:
     return HGridBuilder.dictsToGrid(arr.toArray(EMPTY_HDICT_ARRAY));
   }
 
+  /**
+   * watchStats: the statistics of every open watch, or only of
+   * the watch given by the optional 'watchId' param.
+   */
+  private static HGrid watchStats(NHServer server, HRow params)
+  {
+    if (params.has("watchId"))
+    {
+      NHWatch watch = (NHWatch) server.getWatch(params.getRef("watchId").val);
+      if (watch == null)
+      {
+        return HGrid.EMPTY;
+      }
+
+      return HGridBuilder.dictToGrid(watch.stats());
+    }
+
+    ArrayList<HDict> arr = new ArrayList<>();
+    for (HWatch watch : server.getWatches())
+    {
+      arr.add(((NHWatch) watch).stats());
+    }
+
+    return HGridBuilder.dictsToGrid(arr.toArray(EMPTY_HDICT_ARRAY));
+  }
+
   /**
    * showPointsInWatch
    */
@@ -1654,7 +2411,7 @@ outer:
     return refs;
   }
 
-  private static HRef valToId(HServer db, HVal val)
+  static HRef valToId(HServer db, HVal val)
   {
     if (val instanceof HUri)
     {
@@ -9,19 +9,21 @@
 package nhaystack.server;
 
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Arrays;
+import java.util.List;
 import java.util.Map;
-import java.util.Timer;
-import java.util.TimerTask;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import javax.baja.control.BControlPoint;
 import javax.baja.schedule.BWeeklySchedule;
 import javax.baja.sys.BComponent;
-import javax.baja.sys.BComponentEvent;
 import javax.baja.sys.BajaRuntimeException;
 import javax.baja.sys.Clock;
-import javax.baja.sys.Subscriber;
+import javax.baja.sys.Context;
 import javax.baja.util.BUuid;
 import org.projecthaystack.HDict;
 import org.projecthaystack.HDictBuilder;
@@ -34,18 +36,38 @@ import org.projecthaystack.HWatch;
 
 /**
   * NHWatch manages leased components
+  * <p>
+  * There is no watch-wide lock.  The subscribed points are kept in
+  * concurrent maps, and the dirty points are collected in a set that
+  * pollChanges() swaps out atomically, so that COVs can keep arriving
+  * while the previous batch is being drained.  Only changes to the
+  * subscription itself (sub, unsub and close) are serialized, and sub
+  * does its lookups and dict building before it takes that lock.
   */
 class NHWatch extends HWatch
 {
     NHWatch(NHServer server, String dis, long leaseInterval)
+    {
+        this(server, BUuid.make().toString(), dis, leaseInterval,
+            userName(ThreadContext.getContext(Thread.currentThread())));
+    }
+
+    NHWatch(NHServer server, String watchId, String dis, long leaseInterval, String user)
     {
         this.server = server;
         this.dis = dis;
-        this.watchId = BUuid.make().toString();
+        this.watchId = watchId;
+        this.user = user;
         this.leaseInterval = leaseInterval; 
         this.open = true;
 
-        scheduleLeaseTimeout();
+        extendLease();
+        server.scheduleLeaseCheck(this, leaseInterval);
+    }
+
+    private static String userName(Context cx)
+    {
+        return cx == null || cx.getUser() == null ? null : cx.getUser().getUsername();
     }
 
     public String toString()
@@ -74,6 +96,15 @@ class NHWatch extends HWatch
         return dis;
     }
 
+    /**
+     * The name of the user that opened the watch, or null if it
+     * was opened without a user.
+     */
+    String user()
+    {
+        return user;
+    }
+
     /**
      * Lease period or null if watch has not been opened yet.
      */
@@ -94,7 +125,18 @@ class NHWatch extends HWatch
      * for 'watchId' and 'lease'.
      */
     @Override
-    public synchronized HGrid sub(HRef[] ids, boolean checked)
+    public HGrid sub(HRef[] ids, boolean checked)
+    {
+        return sub(ids, null);
+    }
+
+    /**
+     * Add a list of records to the subscription list, and return their
+     * current representation.  Each record may be given a CovFilter, to
+     * throttle its changes or apply a deadband to them.  The filters array
+     * may be null, as may any of its entries.
+     */
+    HGrid sub(HRef[] ids, CovFilter[] covFilters)
     {
         if (!open) throw new BajaRuntimeException(
             "Watch " + watchId + " is closed.");
@@ -104,53 +146,54 @@ class NHWatch extends HWatch
             LOG.fine("NHWatch.sub begin " + watchId + ", length " + ids.length);
 
         lastPoll = System.currentTimeMillis();
-        scheduleLeaseTimeout();
+        extendLease();
 
         HDict meta = new HDictBuilder()
             .add("watchId", HStr.make(id()))
             .add("lease", lease())
             .toDict();
 
-        ArrayList<HDict> response = new ArrayList<>();
+        // resolve the ids and build their dicts in chunks,
+        // spread across the server's worker threads
+        BComponent[] points = new BComponent[ids.length];
+        HDict[] covs = new HDict[ids.length];
+        CovFilter[] pointFilters = new CovFilter[ids.length];
+
+        List<Runnable> tasks = new ArrayList<>();
+        for (int i = 0; i < ids.length; i += SUB_CHUNK_SIZE)
+        {
+            int from = i;
+            int to = Math.min(ids.length, i + SUB_CHUNK_SIZE);
+            tasks.add(() -> subChunk(ids, covFilters, from, to, points, covs, pointFilters, ticks));
+        }
+        if (!tasks.isEmpty())
+            server.runParallel(tasks);
+
         ArrayList<BComponent> pointArr = new ArrayList<>();
-        for (HRef id : ids)
+        for (BComponent point : points)
+            if (point != null) pointArr.add(point);
+
+        // now that the expensive part is done, update the subscription
+        synchronized(subLock)
         {
-            try
-            {
-                BComponent comp = server.getTagManager().lookupComponent(id);
-
-                // no such component -- treat 'checked' as if it were false, since
-                // 'checked' is handled on the client side.
-                //
-                // we also ignore anything that's not a control point or schedule.
-                //
-                if (!(comp instanceof BControlPoint || comp instanceof BWeeklySchedule))
-                {
-                    if (LOG.isLoggable(Level.WARNING))
-                        LOG.warning("NHWatch.sub " + watchId + " cannot subscribe to " + id);
+            if (!open) throw new BajaRuntimeException(
+                "Watch " + watchId + " is closed.");
 
-                    response.add(null);
-                }
-                // found
-                else
-                {
-                    pointArr.add(comp);
-                    HDict cov = server.getTagManager().createComponentCovTags(comp);
-                    allSubscribed.put(comp, cov);
-                    response.add(cov);
-                }
-            }
-            catch (Exception e)
+            for (int i = 0; i < points.length; i++)
             {
-                LOG.warning("NHWatch.sub " + watchId + " cannot subscribe to " + id +
-                    ": " + e.getMessage());
-                response.add(null);
+                BComponent comp = points[i];
+                if (comp == null) continue;
+
+                if (pointFilters[i] == null) filters.remove(comp);
+                else filters.put(comp, pointFilters[i]);
+                allSubscribed.put(comp, covs[i]);
             }
-        }
 
-        subscriber.subscribe(pointArr.toArray(EMPTY_COMPONENT_ARRAY), 0, null);
+            server.getSubscriptionManager().subscribe(this, pointArr.toArray(EMPTY_COMPONENT_ARRAY));
+        }
+        server.getWatchStore().changed();
 
-        HGrid grid = HGridBuilder.dictsToGrid(meta, response.toArray(EMPTY_HDICT_ARRAY));
+        HGrid grid = HGridBuilder.dictsToGrid(meta, covs);
 
         if (LOG.isLoggable(Level.FINE))
             LOG.fine("NHWatch.sub end   " + watchId + ", length " + ids.length + ", " +
@@ -159,12 +202,62 @@ class NHWatch extends HWatch
         return grid;
     }
 
+    /**
+      * Resolve ids[from..to) and build their COV dicts.  The entries for
+      * an id that cannot be subscribed to are left null.
+      */
+    private void subChunk(
+        HRef[] ids, CovFilter[] covFilters, int from, int to,
+        BComponent[] points, HDict[] covs, CovFilter[] pointFilters, long ticks)
+    {
+        BComponent[] comps = server.getTagManager().lookupComponents(
+            Arrays.copyOfRange(ids, from, to));
+
+        for (int i = from; i < to; i++)
+        {
+            BComponent comp = comps[i - from];
+
+            // no such component -- treat 'checked' as if it were false, since
+            // 'checked' is handled on the client side.
+            //
+            // we also ignore anything that's not a control point or schedule.
+            //
+            if (!(comp instanceof BControlPoint || comp instanceof BWeeklySchedule))
+            {
+                if (LOG.isLoggable(Level.WARNING))
+                    LOG.warning("NHWatch.sub " + watchId + " cannot subscribe to " + ids[i]);
+                continue;
+            }
+
+            try
+            {
+                covs[i] = server.getTagManager().createComponentCovTags(comp);
+
+                CovFilter filter = covFilters == null ? null : covFilters[i];
+                if (filter != null)
+                {
+                    filter = filter.forPoint();
+                    filter.reported(comp, ticks);
+                    pointFilters[i] = filter;
+                }
+
+                points[i] = comp;
+            }
+            catch (Exception e)
+            {
+                LOG.warning("NHWatch.sub " + watchId + " cannot subscribe to " + ids[i] +
+                    ": " + e.getMessage());
+                covs[i] = null;
+            }
+        }
+    }
+
     /**
      * Remove a list of records from watch.  Silently ignore
      * any invalid ids.
      */
     @Override
-    public synchronized void unsub(HRef[] ids)
+    public void unsub(HRef[] ids)
     {
         if (!open) throw new BajaRuntimeException(
             "Watch " + watchId + " is closed.");
@@ -172,25 +265,38 @@ class NHWatch extends HWatch
         if (LOG.isLoggable(Level.FINE))
             LOG.fine("NHWatch.unsub " + watchId + ", length " + ids.length);
 
-        scheduleLeaseTimeout();
+        extendLease();
 
-        ArrayList<BComponent> pointArr = new ArrayList<>();
+        ArrayList<BComponent> comps = new ArrayList<>();
         for (HRef id : ids)
         {
             BComponent comp = server.getTagManager().lookupComponent(id);
-            if (comp != null && allSubscribed.containsKey(comp))
+            if (comp != null) comps.add(comp);
+        }
+
+        synchronized(subLock)
+        {
+            if (!open) throw new BajaRuntimeException(
+                "Watch " + watchId + " is closed.");
+
+            ArrayList<BComponent> pointArr = new ArrayList<>();
+            for (BComponent comp : comps)
             {
-                if (LOG.isLoggable(Level.FINE))
-                    LOG.fine("NHWatch.unsub " + watchId + " unsubscribe " + id);
+                if (allSubscribed.remove(comp) != null)
+                {
+                    if (LOG.isLoggable(Level.FINE))
+                        LOG.fine("NHWatch.unsub " + watchId + " unsubscribe " + comp.getSlotPath());
 
-                pointArr.add(comp);
-                allSubscribed.remove(comp);
-                nextPoll.remove(comp);
+                    pointArr.add(comp);
+                    filters.remove(comp);
+                    dirty.get().remove(comp);
+                }
             }
-        }
 
-        // unsubscribe
-        subscriber.unsubscribe(pointArr.toArray(EMPTY_COMPONENT_ARRAY), null);
+            // unsubscribe
+            server.getSubscriptionManager().unsubscribe(this, pointArr.toArray(EMPTY_COMPONENT_ARRAY));
+        }
+        server.getWatchStore().changed();
     }
 
     /**
@@ -198,7 +304,7 @@ class NHWatch extends HWatch
      * This returns only the id, curVal and curStatus tags for each point.
      */
     @Override
-    public synchronized HGrid pollChanges()
+    public HGrid pollChanges()
     {
         if (!open) throw new BajaRuntimeException(
             "Watch " + watchId + " is closed.");
@@ -207,13 +313,34 @@ class NHWatch extends HWatch
             LOG.fine("NHWatch.pollChanges begin " + watchId);
 
         lastPoll = System.currentTimeMillis();
-        scheduleLeaseTimeout();
+        extendLease();
+
+        // swap in an empty set so we can start accumulating more COVs,
+        // and create a response from the COV values of every dirty point
+        Set<BComponent> batch = dirty.getAndSet(ConcurrentHashMap.newKeySet());
+
+        SubscriptionManager subscriptionMgr = server.getSubscriptionManager();
+        ArrayList<HDict> response = new ArrayList<>();
+        long ticks = Clock.ticks();
+        for (BComponent comp : batch)
+        {
+            // throttled points stay dirty until their interval is up
+            CovFilter filter = filters.get(comp);
+            if (filter != null && filter.delay(ticks) > 0)
+            {
+                dirty.get().add(comp);
+                continue;
+            }
 
-        // create a response from all the COV values in nextPoll
-        ArrayList<HDict> response = new ArrayList<>(nextPoll.values());
+            if (allSubscribed.containsKey(comp))
+            {
+                response.add(subscriptionMgr.cov(comp));
+                if (filter != null) filter.reported(comp, ticks);
+            }
+        }
 
-        // clear out nextPoll so we can start accumulating more COVs
-        nextPoll.clear();
+        polls.increment();
+        polledRows.add(response.size());
 
         // done
         if (LOG.isLoggable(Level.FINE))
@@ -221,12 +348,26 @@ class NHWatch extends HWatch
         return HGridBuilder.dictsToGrid(response.toArray(EMPTY_HDICT_ARRAY));
     }
 
+    /**
+     * Poll for any changes to the subscriptions records, waiting up to
+     * the given number of milliseconds for the first change to arrive
+     * if there are none pending.  The wait is cut short if the watch is
+     * closed, and is capped so that the lease cannot expire meanwhile.
+     */
+    HGrid pollChanges(long timeout)
+    {
+        if (timeout > 0)
+            awaitChanges(timeout);
+
+        return pollChanges();
+    }
+
     /**
      * Poll all the subscriptions records even if there have been no changes.
      * This returns all of the tags for each point.
      */
     @Override
-    public synchronized HGrid pollRefresh()
+    public HGrid pollRefresh()
     {
         if (!open) throw new BajaRuntimeException(
             "Watch " + watchId + " is closed.");
@@ -235,20 +376,25 @@ class NHWatch extends HWatch
             LOG.fine("NHWatch.pollRefresh begin " + watchId);
 
         lastPoll = System.currentTimeMillis();
-        scheduleLeaseTimeout();
+        extendLease();
+
+        // since this method counts as a poll, clear out the dirty points
+        // so we can start accumulating more Covs.
+        dirty.set(ConcurrentHashMap.newKeySet());
 
         // create a response that represents every tag for every subscribed point
+        SubscriptionManager subscriptionMgr = server.getSubscriptionManager();
         ArrayList<HDict> response = new ArrayList<>();
+        long ticks = Clock.ticks();
         for (BComponent point : allSubscribed.keySet())
         {
-            HDict dict = server.getTagManager().createComponentCovTags(point);
+            HDict dict = subscriptionMgr.cov(point);
             response.add(dict);
-            allSubscribed.put(point, dict);
-        }
+            allSubscribed.replace(point, dict);
 
-        // since this method counts as a poll, clear out nextPoll so we 
-        // can start accumulating more Covs.
-        nextPoll.clear();
+            CovFilter filter = filters.get(point);
+            if (filter != null) filter.reported(point, ticks);
+        }
 
         // done
         if (LOG.isLoggable(Level.FINE))
@@ -261,65 +407,63 @@ class NHWatch extends HWatch
      * Close the watch and free up any state resources.
      */
     @Override
-    public synchronized void close()
+    public void close()
     {
-        if (!open) throw new BajaRuntimeException(
+        if (!doClose()) throw new BajaRuntimeException(
             "Watch " + watchId + " is closed.");
-
-        if (LOG.isLoggable(Level.FINE))
-            LOG.fine("NHWatch.close " + watchId);
-
-        if (timeout != null)
-            timeout.cancel();
-
-        timer.cancel();
-        open = false;
-
-        subscriber.unsubscribeAll();
-
-        allSubscribed.clear();
-        nextPoll.clear();
-
-        server.removeWatch(watchId);
     }
 
     /**
      * Return whether this watch is currently open.
      */
     @Override
-    public synchronized boolean isOpen()
+    public boolean isOpen()
     {
         return open;
     }
 
 ////////////////////////////////////////////////////////////////
-// NSubscriber
+// package-scope
 ////////////////////////////////////////////////////////////////
 
-    private class NSubscriber extends Subscriber
+    /**
+      * Called by the SubscriptionManager when the 'out' slot of
+      * a component that this watch is interested in has changed.
+      * <p>
+      * This runs on the thread that changed the component, so it only
+      * remembers the component.  The COV dict is created when the watch
+      * is next polled, so a point that changes many times between polls
+      * is only converted once.
+      */
+    void markDirty(BComponent comp)
     {
-        @Override
-        public void event(BComponentEvent event)
-        {
-            synchronized(NHWatch.this)
-            {
-                BComponent comp = event.getSourceComponent();
+        events.increment();
 
-                if (event.getSlotName().equals("out") && // we only care about the "out" slot
-                    allSubscribed.containsKey(comp))     // and lets double check that we are really subscribed
-                {
-                    HDict cov = server.getTagManager().createComponentCovTags(comp);
-                    nextPoll.put(comp, cov);
-                }
-            }
+        // ignore changes that are inside the point's deadband
+        CovFilter filter = filters.get(comp);
+        if (filter != null && !filter.isSignificant(comp))
+        {
+            filtered.increment();
+            return;
         }
-    }
 
-////////////////////////////////////////////////////////////////
-// package-scope
-////////////////////////////////////////////////////////////////
+        // if the set was swapped out while we were adding to it, then
+        // the poll that took it may have missed us, so add to the new one
+        Set<BComponent> set = dirty.get();
+        boolean added = set.add(comp);
+        if (dirty.get() != set)
+            added = dirty.get().add(comp);
+
+        // the point was already pending, so this change
+        // will go out in the same COV as the previous one
+        if (!added)
+            coalesced.increment();
 
-    synchronized HDict[] curSubscribed()
+        if (added && parked > 0)
+            wakeParked();
+    }
+
+    HDict[] curSubscribed()
     {
         ArrayList<HDict> arr = new ArrayList<>();
         for (BComponent point : allSubscribed.keySet())
@@ -330,31 +474,220 @@ class NHWatch extends HWatch
         return arr.toArray(EMPTY_HDICT_ARRAY);
     }
 
-    synchronized long lastPoll()
+    /**
+      * Return a dict for each subscribed point, with the point's id and
+      * the options of its CovFilter, for the WatchStore to save.
+      */
+    HDict[] savedPoints()
+    {
+        ArrayList<HDict> arr = new ArrayList<>();
+        for (BComponent point : allSubscribed.keySet())
+        {
+            HDictBuilder hdb = new HDictBuilder();
+            hdb.add("id", server.getTagManager().makeComponentRef(point).getHRef());
+
+            CovFilter filter = filters.get(point);
+            if (filter != null)
+            {
+                if (filter.minInterval > 0)
+                    hdb.add(CovFilter.MIN_INTERVAL, HNum.make(filter.minInterval, "ms"));
+                if (filter.deadband > 0)
+                    hdb.add(CovFilter.DEADBAND, filter.percent ?
+                        HNum.make(filter.deadband, "%") :
+                        HNum.make(filter.deadband));
+            }
+            arr.add(hdb.toDict());
+        }
+        return arr.toArray(EMPTY_HDICT_ARRAY);
+    }
+
+    long lastPoll()
     {
         return lastPoll;
     }
 
+    /**
+      * Return a dict of statistics about this watch: how many points it
+      * has and how many are waiting to be polled, how busy its points are,
+      * how much each poll returns, and how close its lease is to running out.
+      * <p>
+      * eventsPerSec is the rate that was measured by the last call to
+      * sampleRate(), so reading the stats does not change it.
+      */
+    HDict stats()
+    {
+        long ticks = Clock.ticks();
+        long eventCount = events.sum();
+        long pollCount = polls.sum();
+        double rate = eventsPerSec;
+
+        return new HDictBuilder()
+            .add("id", HRef.make(watchId))
+            .add("dis", dis)
+            .add("subscribed", allSubscribed.size())
+            .add("pending", dirty.get().size())
+            .add("events", eventCount)
+            .add("eventsPerSec", HNum.make(Math.round(rate * 100) / 100.0, "/s"))
+            .add("coalesced", coalesced.sum())
+            .add("filtered", filtered.sum())
+            .add("polls", pollCount)
+            .add("avgPollSize", pollCount == 0 ? 0 :
+                Math.round(polledRows.sum() * 10.0 / pollCount) / 10.0)
+            .add("sinceLastPoll", HNum.make(System.currentTimeMillis() - lastPoll, "ms"))
+            .add("leaseHeadroom", HNum.make(Math.max(0, leaseDeadline - ticks), "ms"))
+            .add("lease", lease())
+            .toDict();
+    }
+
+    /**
+      * Measure eventsPerSec over the time since the previous sample.
+      * This is called periodically by the server's lease timer.
+      */
+    void sampleRate()
+    {
+        long ticks = Clock.ticks();
+        long eventCount = events.sum();
+        long elapsed = ticks - rateTicks;
+        if (elapsed <= 0) return;
+
+        eventsPerSec = (eventCount - rateEvents) * 1000.0 / elapsed;
+        rateTicks = ticks;
+        rateEvents = eventCount;
+    }
+
 ////////////////////////////////////////////////////////////////
-// Timeout
+// Long poll
 ////////////////////////////////////////////////////////////////
 
-    private void scheduleLeaseTimeout()
+    private void awaitChanges(long timeout)
     {
-        if (timeout != null)
-            timeout.cancel();
+        // the request may be parked for a while, so
+        // don't let the lease run out from under it
+        renewLease();
+
+        long wait = Math.min(timeout, Math.min(MAX_POLL_TIMEOUT, leaseInterval / 2));
+        long deadline = Clock.ticks() + wait;
+
+        if (LOG.isLoggable(Level.FINE))
+            LOG.fine("NHWatch.awaitChanges " + watchId + ", " + wait + "ms");
 
-        timer.schedule(timeout = new Timeout(), leaseInterval);
+        synchronized(changeLock)
+        {
+            parked++;
+            try
+            {
+                while (open)
+                {
+                    long ticks = Clock.ticks();
+                    long remaining = deadline - ticks;
+                    long pending = pendingDelay(ticks);
+                    if (pending == 0 || remaining <= 0) break;
+
+                    // wake up when a throttled point can be reported
+                    changeLock.wait(pending < 0 ? remaining : Math.min(remaining, pending));
+                }
+            }
+            catch (InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
+            }
+            finally
+            {
+                parked--;
+            }
+        }
+    }
+
+    /**
+      * Return the number of millis until one of the dirty points may be
+      * reported, 0 if one may be reported now, or -1 if none are dirty.
+      */
+    private long pendingDelay(long ticks)
+    {
+        long delay = -1;
+        for (BComponent comp : dirty.get())
+        {
+            CovFilter filter = filters.get(comp);
+            long d = filter == null ? 0 : filter.delay(ticks);
+            if (d == 0) return 0;
+            if (delay < 0 || d < delay) delay = d;
+        }
+        return delay;
+    }
+
+    private void wakeParked()
+    {
+        synchronized(changeLock)
+        {
+            changeLock.notifyAll();
+        }
+    }
+
+    private void renewLease()
+    {
+        lastPoll = System.currentTimeMillis();
+        extendLease();
+    }
+
+////////////////////////////////////////////////////////////////
+// Lease
+////////////////////////////////////////////////////////////////
+
+    /**
+      * Push the lease deadline out by another lease interval.  This only
+      * records the new deadline; the deadline is checked lazily by
+      * checkLease().
+      */
+    private void extendLease()
+    {
+        leaseDeadline = Clock.ticks() + leaseInterval;
     }
 
-    private class Timeout extends TimerTask
+    /**
+      * Called on the NHServer's lease timer.  If the lease has been
+      * extended since this check was scheduled, then schedule another
+      * check for the new deadline, otherwise close the watch.
+      */
+    void checkLease()
     {
-        @Override
-        public void run()
+        if (!open) return;
+
+        long remaining = leaseDeadline - Clock.ticks();
+        if (remaining > 0)
         {
+            server.scheduleLeaseCheck(this, remaining);
+            return;
+        }
+
+        if (doClose())
             LOG.warning("Watch " + watchId + " timed out.");
-            close();
+    }
+
+    /**
+      * Close the watch, returning false if it was already closed.
+      */
+    private boolean doClose()
+    {
+        synchronized(subLock)
+        {
+            if (!open) return false;
+
+            if (LOG.isLoggable(Level.FINE))
+                LOG.fine("NHWatch.close " + watchId);
+
+            open = false;
+            wakeParked();
+
+            server.getSubscriptionManager().unsubscribe(this,
+                allSubscribed.keySet().toArray(EMPTY_COMPONENT_ARRAY));
+
+            allSubscribed.clear();
+            filters.clear();
+            dirty.set(ConcurrentHashMap.newKeySet());
         }
+
+        server.removeWatch(watchId);
+        return true;
     }
 
 ////////////////////////////////////////////////////////////////
@@ -366,19 +699,42 @@ class NHWatch extends HWatch
     private static final BComponent[] EMPTY_COMPONENT_ARRAY = new BComponent[0];
     private static final HDict[] EMPTY_HDICT_ARRAY = new HDict[0];
 
+    // number of ids that are resolved together by one worker during sub
+    private static final int SUB_CHUNK_SIZE = 500;
+
+    // upper bound on how long a long poll may be parked
+    private static final long MAX_POLL_TIMEOUT = 60000L;
+
     private final NHServer server;
     private final String dis;
     private final String watchId;
+    private final String user;
     private final long leaseInterval;
 
-    private final Subscriber subscriber = new NSubscriber();
+    private final Map<BComponent, HDict> allSubscribed = new ConcurrentHashMap<>(); // point -> HDict (all tags)
+    private final Map<BComponent, CovFilter> filters = new ConcurrentHashMap<>(); // point -> CovFilter (if any)
+    private final AtomicReference<Set<BComponent>> dirty = // points changed since last poll
+        new AtomicReference<>(ConcurrentHashMap.newKeySet());
+
+    private final Object subLock = new Object(); // serializes sub, unsub and close
+
+    private final Object changeLock = new Object();
+    private volatile int parked; // number of long polls waiting on changeLock
+
+    // statistics
+    private final LongAdder events = new LongAdder();     // changes to any subscribed point
+    private final LongAdder filtered = new LongAdder();   // changes dropped by a deadband
+    private final LongAdder coalesced = new LongAdder();  // changes to a point that was already pending
+    private final LongAdder polls = new LongAdder();
+    private final LongAdder polledRows = new LongAdder();
 
-    private final Map<BComponent, HDict> allSubscribed = new HashMap<>(); // point -> HDict (all tags)
-    private final Map<BComponent, HDict> nextPoll = new HashMap<>(); // point -> HDict (cov)
+    // only sampleRate() writes these, on the lease timer
+    private long rateTicks = Clock.ticks();
+    private long rateEvents;
+    private volatile double eventsPerSec;
 
-    private boolean open;
-    private final Timer timer = new Timer();
-    private Timeout timeout;
-    private long lastPoll;
+    private volatile boolean open;
+    private volatile long leaseDeadline;
+    private volatile long lastPoll;
 }
 
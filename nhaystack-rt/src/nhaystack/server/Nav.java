@@ -28,9 +28,13 @@ import nhaystack.site.*;
 import nhaystack.util.*;
 import org.projecthaystack.HDict;
 import org.projecthaystack.HDictBuilder;
+import org.projecthaystack.HFilter;
 import org.projecthaystack.HGrid;
 import org.projecthaystack.HGridBuilder;
+import org.projecthaystack.HRef;
+import org.projecthaystack.HRow;
 import org.projecthaystack.HStr;
+import org.projecthaystack.HVal;
 
 /**
   * Nav manages the nav trees
@@ -47,6 +51,7 @@ public class Nav
         this.spaceMgr = spaceMgr;
         this.cache = cache;
         this.tagMgr = tagMgr;
+        this.navCache = new NavCache(service, cache);
     }
 
 ////////////////////////////////////////////////////////////////
@@ -85,20 +90,121 @@ public class Nav
     }
 
     /**
-      * Return navigation tree children for given navId. 
+      * Return navigation tree children for given navId.  The component
+      * space is browsed live, the other trees come from the Cache, so
+      * their grids are kept in the NavCache.
       */
     HGrid onNav(String navId)
     {
         if (navId == null) return roots();
 
         else if (navId.startsWith(SLOT)) return onCompNav(navId);
-        else if (navId.startsWith(HIS))  return onHisNav(navId);
-        else if (navId.startsWith(SEP)) return onSepNav(navId);
+        else if (navId.startsWith(HIS) || navId.startsWith(SEP))
+            return navCache.get(navId, () -> makeNav(navId), this::refreshCurTags);
 
         else
             throw new IllegalStateException(STATEMSG + navId);
     }
 
+    private HGrid makeNav(String navId)
+    {
+        return navId.startsWith(HIS) ? onHisNav(navId) : onSepNav(navId);
+    }
+
+    /**
+      * Make the curVal, curStatus and axStatus tags of the point rows
+      * of a cached grid again, so that they are not older than the
+      * values.  The components are looked up all at once.
+      */
+    private HGrid refreshCurTags(HGrid grid)
+    {
+        ArrayList<Integer> rows = new ArrayList<>();
+        ArrayList<HRef> ids = new ArrayList<>();
+        for (int i = 0; i < grid.numRows(); i++)
+        {
+            HRow row = grid.row(i);
+            if (row.has("cur") && row.get("id", false) instanceof HRef)
+            {
+                rows.add(i);
+                ids.add(row.id());
+            }
+        }
+        if (rows.isEmpty()) return grid;
+
+        HDict[] dicts = new HDict[grid.numRows()];
+        for (int i = 0; i < dicts.length; i++)
+            dicts[i] = grid.row(i);
+
+        BComponent[] comps = tagMgr.lookupComponents(ids.toArray(new HRef[0]));
+        for (int i = 0; i < comps.length; i++)
+        {
+            BComponent comp = comps[i];
+            if (comp instanceof BControlPoint || comp instanceof BWeeklySchedule)
+            {
+                int row = rows.get(i);
+                dicts[row] = tagMgr.refreshCurTags(dicts[row], comp);
+            }
+        }
+        return HGridBuilder.dictsToGrid(dicts);
+    }
+
+    /**
+      * Report the hits and misses of the NavCache in BNHaystackStats.
+      */
+    void updateCacheStats()
+    {
+        navCache.updateStats();
+    }
+
+    /**
+      * Return all the descendants of the navId, down to maxDepth levels,
+      * in one grid.  The rows come in depth-first order, each with the
+      * navId of its parent in 'parentNavId' (which is missing for the
+      * roots).  If there is a filter, only the rows that match it are
+      * returned, but the rows that don't are still walked through.
+      * <p>
+      * When the walk starts from the roots, it does not go down into the
+      * component space, which is only walked when its navId is asked for.
+      * At most MAX_NAV_TREE_ROWS rows are walked through, and asking for
+      * a tree with more than that is an error, so the client has to ask
+      * for a smaller subtree or a lower maxDepth.
+      */
+    HGrid onNavTree(String navId, int maxDepth, HFilter filter, HFilter.Pather pather)
+    {
+        ArrayList<HDict> dicts = new ArrayList<>();
+        walkNavTree(navId, 1, maxDepth, filter, pather, dicts, new int[1]);
+        return HGridBuilder.dictsToGrid(dicts.toArray(EMPTY_HDICT_ARRAY));
+    }
+
+    private void walkNavTree(
+        String navId, int depth, int maxDepth,
+        HFilter filter, HFilter.Pather pather, ArrayList<HDict> dicts, int[] walked)
+    {
+        HGrid kids = onNav(navId);
+        walked[0] += kids.numRows();
+        if (walked[0] > MAX_NAV_TREE_ROWS)
+            throw new IllegalArgumentException(
+                "The nav tree below " + (navId == null ? "the roots" : navId) +
+                " has more than " + MAX_NAV_TREE_ROWS + " rows, ask for a subtree or a lower maxDepth");
+
+        for (int i = 0; i < kids.numRows(); i++)
+        {
+            HRow kid = kids.row(i);
+            if (filter == null || filter.include(kid, pather))
+            {
+                HDictBuilder hd = new HDictBuilder();
+                hd.add(kid);
+                if (navId != null) hd.add(PARENT_NAVID, navId);
+                dicts.add(hd.toDict());
+            }
+
+            HVal kidNav = kid.get(NAVID, false);
+            if (depth < maxDepth && kidNav instanceof HStr &&
+                !(navId == null && ((HStr) kidNav).val.startsWith(SLOT)))
+                walkNavTree(((HStr) kidNav).val, depth + 1, maxDepth, filter, pather, dicts, walked);
+        }
+    }
+
     /**
       * Fetch the site-equip-point nav tree in xml format
       */
@@ -106,11 +212,41 @@ public class Nav
     {
         ByteArrayOutputStream bout = new ByteArrayOutputStream();
         XWriter out = new XWriter(bout);
+        writeSepNav(new XmlSepNavWriter(out), null);
+        out.close();
+
+        String xml = bout.toString();
+        return xml;
+    }
+
+    /**
+      * Walk the site-equip-point nav tree straight from the Cache, handing
+      * each entity to the writer as soon as it is reached, so that nothing
+      * is held but the path down to the current entity.  If siteNames is
+      * not null, only the sites with those navNames are written.  Entities
+      * that the current user cannot read are left out, along with
+      * everything below them.
+      */
+    void writeSepNav(SepNavWriter out, Set<String> siteNames)
+    {
+        Context cx = ThreadContext.getContext(Thread.currentThread());
+
+        ArrayList<BComponent> sites = new ArrayList<>();
+        ArrayList<HDict> sitesTags = new ArrayList<>();
+        for (BComponent site : cache.getAllSites())
+        {
+            if (!TypeUtil.canRead(site, cx)) continue;
 
-        BComponent[] sites = cache.getAllSites();
-        out.w("<sepNav").w(sites.length == 0 ? "/>" : ">").nl();
-        for (BComponent site: sites) {
             HDict siteTags = tagMgr.createComponentTags(site);
+            if (siteNames != null && !siteNames.contains(siteTags.getStr(NAVNAME))) continue;
+
+            sites.add(site);
+            sitesTags.add(siteTags);
+        }
+
+        out.open("sepNav", null, 0, sites.isEmpty());
+        for (int i = 0; i < sites.size(); i++) {
+            HDict siteTags = sitesTags.get(i);
             String siteName = siteTags.getStr(NAVNAME);
 
             String siteNavId = makeSiteNavId(siteName);
@@ -118,7 +254,7 @@ public class Nav
             BComponent[] spaces = cache.getNavSiteSpaces(siteNavId);
 
             boolean noChildren = equips.length + spaces.length == 0;
-            openTag(out, "site", siteTags, 1, noChildren);
+            out.open(NHaystackConst.SITE, siteTags, 1, noChildren);
 
             for (BComponent space : spaces)
             {
@@ -130,7 +266,7 @@ public class Nav
                   parent == null ||
                     Arrays.stream(spaces).noneMatch(parent::equals)
                 ) {
-                    writeXml(out, 2, space);
+                    writeEntity(out, 2, space, cx);
                 }
             }
 
@@ -147,23 +283,72 @@ public class Nav
                         && Arrays.stream(spaces).noneMatch(parent::equals)
                     )
                 ) {
-                    writeXml(out, 2, equip);
+                    writeEntity(out, 2, equip, cx);
                 }
             }
 
             if (!noChildren) {
-                closeTag(out, "site", 1);
+                out.close(NHaystackConst.SITE, 1);
             }
         }
 
-        if (sites.length != 0) {
-            closeTag(out, "sepNav", 0);
+        if (!sites.isEmpty()) {
+            out.close("sepNav", 0);
         }
+    }
 
-        out.close();
+////////////////////////////////////////////////////////////////
+// SepNavWriter
+////////////////////////////////////////////////////////////////
 
-        String xml = bout.toString();
-        return xml;
+    /**
+     * Receives the entities of the site-equip-point nav tree as
+     * writeSepNav() walks it.  An entity that is opened with empty set
+     * has no children and is not closed.  The root is opened as "sepNav"
+     * at indent 0, with null tags.
+     */
+    interface SepNavWriter
+    {
+        void open(String tagName, HDict tags, int indent, boolean empty);
+
+        void close(String tagName, int indent);
+
+        void point(HDict tags, int indent);
+    }
+
+    /**
+     * Writes the nav tree as the sepNav XML document.
+     */
+    static final class XmlSepNavWriter implements SepNavWriter
+    {
+        XmlSepNavWriter(XWriter out)
+        {
+            this.out = out;
+        }
+
+        @Override
+        public void open(String tagName, HDict tags, int indent, boolean empty)
+        {
+            openTag(out, tagName, tags, indent, empty);
+        }
+
+        @Override
+        public void close(String tagName, int indent)
+        {
+            closeTag(out, tagName, indent);
+        }
+
+        @Override
+        public void point(HDict tags, int indent)
+        {
+            out.indent(indent)
+              .w("<point ")
+              .attr(NAVNAME, tags.getStr(NAVNAME)).w(" ")
+              .attr(AXTYPE, tags.getStr(AXTYPE))
+              .w("/>").nl();
+        }
+
+        private final XWriter out;
     }
 
 ////////////////////////////////////////////////////////////////
@@ -207,7 +392,7 @@ public class Nav
      *
      * @param out        Writer to write tag to.
      * @param tagName    Tag name of tag to open.
-     * @param entityTags Tags of the entity to include nav name from.
+     * @param entityTags Tags of the entity to include nav name from, or null.
      * @param indent     Indentation level.
      * @param empty      Whether the tag should be closed.
      */
@@ -218,9 +403,12 @@ public class Nav
         out
             .indent(indent)
             .w("<")
-            .w(tagName)
-            .w(" ")
-            .attr(NAVNAME, entityTags.getStr(NAVNAME))
+            .w(tagName);
+        if (entityTags != null)
+        {
+            out.w(" ").attr(NAVNAME, entityTags.getStr(NAVNAME));
+        }
+        out
             .w(empty ? "/>" : ">")
             .nl();
     }
@@ -241,14 +429,17 @@ public class Nav
     }
 
     /**
-     * Write XML description of a component to a given XML writer.
+     * Hand a component and everything below it to the writer.
      *
-     * @param out XML writer to write component data out to.
+     * @param out Writer to hand the component to.
      * @param indent Indentation level to start at.
-     * @param comp Component to encode to XML.
+     * @param comp Component to write.
+     * @param cx Context to check read permissions against.
      */
-    private void writeXml(XWriter out, int indent, BComponent comp)
+    private void writeEntity(SepNavWriter out, int indent, BComponent comp, Context cx)
     {
+        if (!TypeUtil.canRead(comp, cx)) return;
+
         BComponent[] children = cache.getChildren(comp);
 
         String tagName = getTag(comp);
@@ -266,41 +457,23 @@ public class Nav
         );
 
         HDict tags = tagMgr.createComponentTags(comp);
-        openTag(out, tagName, tags, indent, !hasChildren);
+        out.open(tagName, tags, indent, !hasChildren);
 
         for (BComponent child : children) {
-            writeXml(out, indent + 1, child);
+            writeEntity(out, indent + 1, child, cx);
         }
 
         if (points != null) {
-            writePointListXml(out, indent + 1, points);
+            for (BComponent point : points)
+            {
+                if (TypeUtil.canRead(point, cx))
+                    out.point(tagMgr.createComponentTags(point), indent + 1);
+            }
         }
 
         if (hasChildren)
         {
-            closeTag(out, tagName, indent);
-        }
-    }
-
-    /**
-     * Encode points to XML and write to the provided writer.
-     *
-     * @param out XML writer to use to write points out to.
-     * @param indent Indentation level for each line of XML.
-     * @param points Points to encode.
-     */
-    private void writePointListXml(
-      XWriter out, int indent, BComponent[] points
-    )
-    {
-        for (BComponent point : points)
-        {
-            HDict pointTags = tagMgr.createComponentTags(point);
-            out.indent(indent)
-              .w("<point ")
-              .attr(NAVNAME, pointTags.getStr(NAVNAME)).w(" ")
-              .attr(AXTYPE, pointTags.getStr(AXTYPE))
-              .w("/>").nl();
+            out.close(tagName, indent);
         }
     }
 
@@ -543,16 +716,21 @@ public class Nav
     private static final HDict[] EMPTY_HDICT_ARRAY = new HDict[0];
     private static final BHistoryConfig[] EMPTY_HISTORY_CONFIG_ARRAY = new BHistoryConfig[0];
 
+    // the most rows that navTree walks through
+    static final int MAX_NAV_TREE_ROWS = 10000;
+
     private static final String SEP = "sep:/";
     private static final String SLOT = "slot:/";
     private static final String HIS = "his:/";
     private static final String STATEMSG = "Cannot lookup nav for ";
     private static final String NAVNAME = "navName";
     private static final String NAVID = "navId";
+    private static final String PARENT_NAVID = "parentNavId";
     private static final String AXTYPE = "axType";
 
     final BNHaystackService service;
     final Cache cache;
     final SpaceManager spaceMgr;
     final TagManager tagMgr;
+    private final NavCache navCache;
 }
@@ -0,0 +1,146 @@
+//
+// Copyright 2026 Project Haystack All Rights Reserved.
+// Licensed under the Academic Free License version 3.0
+//
+// History:
+//   18 Oct 2026  Creation
+//
+package nhaystack.server;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.Supplier;
+import java.util.function.UnaryOperator;
+import javax.baja.sys.Clock;
+import javax.baja.sys.Context;
+import org.projecthaystack.HGrid;
+
+/**
+  * NavCache keeps the nav grids that have been built from the Cache,
+  * so that tree browsers asking for the same navIds over and over get
+  * them without rebuilding the tags of every child each time.
+  * <p>
+  * Grids are kept per navId and per user, since the children that are
+  * listed depend on what the user may read.  An entry is thrown away when
+  * the Cache has been rebuilt since it was made, or when it is older than
+  * MAX_AGE, which bounds how long an edit to the tags of a component
+  * that does not cause a rebuild may go unnoticed.  At most MAX_ENTRIES
+  * grids are kept, dropping the least recently used first.
+  * <p>
+  * The rows of points carry their live value, so a grid that comes from
+  * the cache is passed through a refresh, which makes the curVal,
+  * curStatus and axStatus tags again before it is returned.  The hits
+  * and misses are counted here, and reported in BNHaystackStats by
+  * updateStats(), which the server calls on a timer.
+  */
+class NavCache
+{
+    NavCache(BNHaystackService service, Cache cache)
+    {
+        this.service = service;
+        this.cache = cache;
+    }
+
+    /**
+      * Return the cached grid for the navId, passed through
+      * refresh, or make it and cache it.
+      */
+    HGrid get(String navId, Supplier<HGrid> make, UnaryOperator<HGrid> refresh)
+    {
+        String key = navId + '\n' + userKey(ThreadContext.getContext(Thread.currentThread()));
+
+        // read the generation first, so that a grid that
+        // is made during a rebuild is not used after it
+        long generation = cache.generation();
+        long now = Clock.ticks();
+
+        HGrid cached = null;
+        synchronized (this)
+        {
+            Entry entry = entries.get(key);
+            if (entry != null && entry.generation == generation && now - entry.made < MAX_AGE)
+            {
+                hits++;
+                cached = entry.grid;
+            }
+        }
+        if (cached != null) return refresh.apply(cached);
+
+        HGrid grid = make.get();
+
+        synchronized (this)
+        {
+            entries.put(key, new Entry(grid, generation, now));
+            misses++;
+        }
+        return grid;
+    }
+
+    /**
+      * Report the hits and misses in BNHaystackStats, setting
+      * only the properties that have changed.
+      */
+    void updateStats()
+    {
+        long h;
+        long m;
+        synchronized (this)
+        {
+            h = hits;
+            m = misses;
+        }
+
+        BNHaystackStats stats = service.getStats();
+        if (stats.getNavCacheHits() != h) stats.setNavCacheHits(h);
+        if (stats.getNavCacheMisses() != m) stats.setNavCacheMisses(m);
+    }
+
+////////////////////////////////////////////////////////////////
+// private
+////////////////////////////////////////////////////////////////
+
+    private static String userKey(Context cx)
+    {
+        if (cx == null || cx.getUser() == null) return "";
+        return cx.getUser().getUsername();
+    }
+
+    private static final class Entry
+    {
+        Entry(HGrid grid, long generation, long made)
+        {
+            this.grid = grid;
+            this.generation = generation;
+            this.made = made;
+        }
+
+        final HGrid grid;
+        final long generation;
+        final long made;
+    }
+
+////////////////////////////////////////////////////////////////
+// Attributes
+////////////////////////////////////////////////////////////////
+
+    // throw grids away after this long, even if the Cache has not been rebuilt
+    private static final long MAX_AGE = 30 * 1000L;
+
+    private static final int MAX_ENTRIES = 1000;
+
+    private final BNHaystackService service;
+    private final Cache cache;
+
+    // access ordered, so the least recently used grid is dropped first
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<String, Entry>(16, 0.75f, true)
+    {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest)
+        {
+            return size() > MAX_ENTRIES;
+        }
+    };
+
+    private long hits;
+    private long misses;
+}
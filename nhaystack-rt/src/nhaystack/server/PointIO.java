@@ -15,8 +15,7 @@ import org.projecthaystack.*;
 
 import javax.baja.control.*;
 import javax.baja.control.enums.BPriorityLevel;
-import javax.baja.fox.BFoxProxySession;
-import javax.baja.naming.BOrd;
+import javax.baja.driver.BDevice;
 import javax.baja.schedule.*;
 import javax.baja.security.PermissionException;
 import javax.baja.status.*;
@@ -24,6 +23,10 @@ import javax.baja.sys.*;
 import javax.baja.timezone.BTimeZone;
 import javax.baja.units.BUnit;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 import java.util.logging.*;
 
 /**
@@ -31,13 +34,14 @@ import java.util.logging.*;
  */
 public class PointIO
 {
-  PointIO(BNHaystackService service, Cache cache, TagManager tagMgr, ScheduleManager schedMgr, FoxSessionManager foxSessionMgr)
+  PointIO(BNHaystackService service, Cache cache, TagManager tagMgr, ScheduleManager schedMgr, FoxSessionManager foxSessionMgr, LastWriteStore lastWrites)
   {
     this.service = service;
     this.cache = cache;
     this.tagMgr = tagMgr;
     this.schedMgr = schedMgr;
     this.foxSessionMgr = foxSessionMgr;
+    this.lastWrites = lastWrites;
   }
 
   /**
@@ -132,6 +136,178 @@ public class PointIO
     }
   }
 
+  /**
+   * Implementation hook for pointWriteMulti.  Write the level, val and
+   * who of each row of the request to the point with the matching id,
+   * and return the 'id', 'status' ("ok" or "err") and 'err' message of
+   * each row, in order.
+   * <p>
+   * The components are looked up all at once.  Local writes are made
+   * one after another on the calling thread.  Remote writes are grouped
+   * by device, and queued on each device's own writer thread (see
+   * FoxSessionManager), so that the devices are written to at the same
+   * time, while the rows for one device are written in order.  The rows
+   * that have not been written within the write timeout are reported as
+   * failed.  The last writes of each point are recorded once, with all
+   * of its rows.
+   * Schedules cannot be written this way.
+   */
+  HGrid onPointWriteMulti(HRef[] ids, HGrid req)
+  {
+    if (!cache.initialized())
+    {
+      throw new IllegalStateException(Cache.NOT_INITIALIZED);
+    }
+
+    if (LOG.isLoggable(Level.FINE))
+    {
+      LOG.fine("onPointWriteMulti " + ids.length + " rows");
+    }
+
+    Context cx = ThreadContext.getContext(Thread.currentThread());
+    BComponent[] comps = tagMgr.lookupComponents(ids);
+
+    MultiWrite[] writes = new MultiWrite[ids.length];
+    List<MultiWrite> local = new ArrayList<>();
+    Map<BDevice, List<MultiWrite>> remote = new LinkedHashMap<>();
+    for (int i = 0; i < ids.length; i++)
+    {
+      MultiWrite w = writes[i] = new MultiWrite(ids[i]);
+      try
+      {
+        HRow row = req.row(i);
+        w.level = row.getInt(LEVEL);
+        w.val = row.get("val", false);
+        w.who = row.getStr("who");
+        if (matchLevel(w.level) == BPriorityLevel.none)
+        {
+          throw new IllegalArgumentException("Invalid level " + w.level);
+        }
+
+        BComponent comp = comps[i];
+        if (comp == null)
+        {
+          throw new BajaRuntimeException("Cannot find component for " + ids[i]);
+        }
+        if (!(comp instanceof BControlPoint))
+        {
+          throw new BajaRuntimeException("Cannot write to " + comp.getSlotPath());
+        }
+
+        w.point = (BControlPoint) comp;
+        if (!TypeUtil.canWrite(w.point, cx))
+        {
+          throw new PermissionException("Cannot write to " + ids[i]);
+        }
+
+        if (w.point instanceof BIWritablePoint)
+        {
+          local.add(w);
+        }
+        else
+        {
+          w.remote = RemotePoint.fromControlPoint(w.point);
+          if (w.remote == null || !BHDict.findTagAnnotation(w.point).has("writable"))
+          {
+            throw new BajaRuntimeException("Cannot write to " + w.point.getSlotPath() + ", it is neither writable nor remote");
+          }
+          remote.computeIfAbsent(RemotePoint.findParentDevice(w.point), k -> new ArrayList<>()).add(w);
+        }
+      }
+      catch (RuntimeException e)
+      {
+        w.fail(e);
+      }
+    }
+
+    // local writes
+    for (MultiWrite w : local)
+    {
+      try
+      {
+        onControlPointWriteLevel(w.point, w.level, w.val, w.who);
+      }
+      catch (RuntimeException e)
+      {
+        w.fail(e);
+      }
+    }
+
+    // remote writes, which are queued per station, so that
+    // the writes to different stations are made at the same time
+    List<CompletableFuture<Void>> pending = new ArrayList<>();
+    List<MultiWrite> pendingWrites = new ArrayList<>();
+    for (Map.Entry<BDevice, List<MultiWrite>> entry : remote.entrySet())
+    {
+      for (MultiWrite w : entry.getValue())
+      {
+        pending.add(writeRemote(entry.getKey(), w));
+        pendingWrites.add(w);
+      }
+    }
+
+    long timeout = FoxSessionManager.writeTimeout(service.getFoxLeaseInterval().getMillis());
+    try
+    {
+      CompletableFuture.allOf(pending.toArray(new CompletableFuture<?>[0])).get(timeout, TimeUnit.MILLISECONDS);
+    }
+    catch (TimeoutException e)
+    {
+      for (int i = 0; i < pending.size(); i++)
+      {
+        if (!pending.get(i).isDone())
+        {
+          pendingWrites.get(i).fail(new TimeoutException("Timed out after " + timeout + "ms"));
+        }
+      }
+    }
+    catch (InterruptedException e)
+    {
+      Thread.currentThread().interrupt();
+      throw new BajaRuntimeException("Interrupted", e);
+    }
+    catch (ExecutionException e)
+    {
+      // writeRemote() records its own failures
+      throw new BajaRuntimeException(e.getCause().toString(), e.getCause());
+    }
+
+    // last writes, once per point
+    Map<BControlPoint, List<MultiWrite>> byPoint = new LinkedHashMap<>();
+    for (MultiWrite w : writes)
+    {
+      if (w.err == null)
+      {
+        byPoint.computeIfAbsent(w.point, k -> new ArrayList<>()).add(w);
+      }
+    }
+    for (Map.Entry<BControlPoint, List<MultiWrite>> entry : byPoint.entrySet())
+    {
+      List<MultiWrite> list = entry.getValue();
+      int[] levels = new int[list.size()];
+      String[] whos = new String[list.size()];
+      for (int i = 0; i < levels.length; i++)
+      {
+        levels[i] = list.get(i).level;
+        whos[i] = list.get(i).who;
+      }
+      lastWrites.record(entry.getKey(), levels, whos);
+    }
+
+    HGridBuilder gb = new HGridBuilder();
+    gb.addCol("id");
+    gb.addCol("status");
+    gb.addCol("err");
+    for (MultiWrite w : writes)
+    {
+      gb.addRow(new HVal[] {
+        w.id,
+        HStr.make(w.err == null ? "ok" : "err"),
+        w.err == null ? null : HStr.make(w.err)});
+    }
+    return gb.toGrid();
+  }
+
 ////////////////////////////////////////////////////////////////
 // private
 ////////////////////////////////////////////////////////////////
@@ -156,13 +332,9 @@ public class PointIO
       }
       else
       {
-        // look up fox session
+        // resolve remote point over the station's fox session
         long millis = service.getFoxLeaseInterval().getMillis();
-        BFoxProxySession session = foxSessionMgr.getSession(RemotePoint.findParentDevice(point), millis);
-
-        // resolve remote point
-        remote = (BControlPoint) BOrd.make("station:|" + rp.getSlotPath()).get(session);
-        remote.lease(1, millis);
+        remote = foxSessionMgr.resolvePoint(RemotePoint.findParentDevice(point), rp.getSlotPath().toString(), millis);
         if (!(remote instanceof BIWritablePoint))
         {
           LOG.severe("cannot write to " + remote.getSlotPath() + ", it is not writable.");
@@ -257,7 +429,17 @@ public class PointIO
       //   - val: current value at level or null
       //   - who: who last controlled the value at this level
 
+      // who is linked to each level, or else who last wrote it
       String[] who = getLinkWho(working);
+      String[] lastWho = lastWrites.lastWhos(point);
+      for (int i = 0; i < 17; i++)
+      {
+        if (who[i].isEmpty() && lastWho[i] != null)
+        {
+          who[i] = lastWho[i];
+        }
+      }
+
       HDict[] result = new HDict[17];
       for (int i = 0; i < 17; i++)
       {
@@ -493,51 +675,6 @@ public class PointIO
     POINT_PROP_LEVELS.put("fallback", Integer.valueOf(17));
   }
 
-  /**
-   * save the last point write to a BHGrid slot.
-   */
-  private static void saveLastWrite(BControlPoint point, int level, String who)
-  {
-    BHGrid oldGrid = (BHGrid) point.get(LAST_WRITE);
-
-    if (oldGrid == null)
-    {
-      HGrid grid = saveLastWriteToGrid(HGrid.EMPTY, level, who);
-      point.add(LAST_WRITE, BHGrid.make(grid), Flags.SUMMARY | Flags.READONLY);
-    }
-    else
-    {
-      HGrid grid = saveLastWriteToGrid(oldGrid.getGrid(), level, who);
-      point.set(LAST_WRITE, BHGrid.make(grid));
-    }
-  }
-
-  private static HGrid saveLastWriteToGrid(HGrid grid, int level, String who)
-  {
-    // store rows by level
-    Map<HVal, HDict> map = new HashMap<>();
-    for (int i = 0; i < grid.numRows(); i++)
-    {
-      HDict row = grid.row(i);
-      map.put(row.get("level"), row);
-    }
-
-    // create or replace new row
-    HNum hlevel = HNum.make(level);
-    HDictBuilder db = new HDictBuilder();
-    db.add(LEVEL, hlevel);
-    db.add("who", HStr.make(who));
-    map.put(hlevel, db.toDict());
-
-    // create new grid
-    HDict[] dicts = new HDict[map.size()];
-    int n = 0;
-    for (HDict hDict : map.values())
-      dicts[n++] = hDict;
-
-    return HGridBuilder.dictsToGrid(dicts);
-  }
-
   private void onControlPointWrite(BControlPoint point, HDict rec, int level, HVal val, String who, HNum dur) // ignore this for now
           throws Exception
   {
@@ -561,7 +698,7 @@ public class PointIO
     }
 
     // done
-    saveLastWrite(point, level, who);
+    lastWrites.record(point, new int[] {level}, new String[] {who});
   }
 
   /**
@@ -585,21 +722,43 @@ public class PointIO
       return;
     }
 
-    // look up fox session
+    // write the remote point over the station's fox session
     long millis = service.getFoxLeaseInterval().getMillis();
-    BFoxProxySession session = foxSessionMgr.getSession(RemotePoint.findParentDevice(point), millis);
-
-    // resolve remote point
-    BControlPoint remote = (BControlPoint) BOrd.make("station:|" + rp.getSlotPath()).get(session);
-    remote.lease(1, millis);
-    if (!(remote instanceof BIWritablePoint))
+    foxSessionMgr.write(RemotePoint.findParentDevice(point), rp.getSlotPath().toString(), millis, remote ->
     {
-      LOG.severe("cannot write to " + remote.getSlotPath() + ", it is not writable.");
-      return;
-    }
+      if (!(remote instanceof BIWritablePoint))
+      {
+        LOG.severe("cannot write to " + remote.getSlotPath() + ", it is not writable.");
+        return;
+      }
 
-    // done
-    onControlPointWriteLevel(remote, /*null,*/ level, val, who);
+      // done
+      onControlPointWriteLevel(remote, /*null,*/ level, val, who);
+    });
+  }
+
+  /**
+   * Queue the write of a row for a remote point on its station's
+   * fox session, recording any failure in the row.
+   */
+  private CompletableFuture<Void> writeRemote(BDevice device, MultiWrite w)
+  {
+    long millis = service.getFoxLeaseInterval().getMillis();
+    return foxSessionMgr.submitWrite(device, w.remote.getSlotPath().toString(), millis, remote ->
+    {
+      if (!(remote instanceof BIWritablePoint))
+      {
+        throw new IllegalStateException("point is not writable: " + remote.getSlotPath());
+      }
+      onControlPointWriteLevel(remote, w.level, w.val, w.who);
+    }).handle((r, e) ->
+    {
+      if (e != null)
+      {
+        w.fail(FoxSessionManager.unwrap(e));
+      }
+      return null;
+    });
   }
 
   /**
@@ -835,12 +994,43 @@ public class PointIO
     }
   }
 
+////////////////////////////////////////////////////////////////
+// MultiWrite
+////////////////////////////////////////////////////////////////
+
+  /**
+   * One row of a pointWriteMulti request.
+   */
+  private static final class MultiWrite
+  {
+    MultiWrite(HRef id)
+    {
+      this.id = id;
+    }
+
+    void fail(Exception e)
+    {
+      // a write that timed out may still fail later
+      if (err == null)
+      {
+        err = e.getMessage() == null ? e.toString() : e.getMessage();
+      }
+    }
+
+    final HRef id;
+    BControlPoint point;
+    RemotePoint remote;
+    int level;
+    HVal val;
+    String who;
+    volatile String err;
+  }
+
 ////////////////////////////////////////////////////////////////
 // attribs 
 ////////////////////////////////////////////////////////////////
 
   private static final Logger LOG = Logger.getLogger("nhaystack");
-  private static final String LAST_WRITE = "haystackLastWrite";
   private static final String LEVEL = "level";
   private static final String UNITS = "units";
   private static final int FALLBACK_LEVEL = 17;
@@ -850,5 +1040,6 @@ public class PointIO
   private final TagManager tagMgr;
   private final ScheduleManager schedMgr;
   private final FoxSessionManager foxSessionMgr;
+  private final LastWriteStore lastWrites;
 }
 
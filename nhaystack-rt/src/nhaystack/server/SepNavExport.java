@@ -0,0 +1,259 @@
+//
+// Copyright 2026 Project Haystack All Rights Reserved.
+// Licensed under the Academic Free License version 3.0
+//
+// History:
+//   18 Oct 2026  Creation
+//
+package nhaystack.server;
+
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.LinkedHashSet;
+import java.util.Set;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.baja.xml.XWriter;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import org.projecthaystack.HDict;
+import org.projecthaystack.HGrid;
+import org.projecthaystack.HGridBuilder;
+import org.projecthaystack.HStr;
+import org.projecthaystack.HVal;
+import org.projecthaystack.io.HZincWriter;
+
+/**
+  * SepNavExport serves the whole site-equip-point nav tree over HTTP, so
+  * that other systems can pull the structure of the station in one go.
+  * <p>
+  * The tree is written to the response while Nav.writeSepNav() walks the
+  * Cache, so nothing but the path down to the current entity is held,
+  * however large the station.  It is requested with a GET on
+  * {@code sepNavExport}, with an optional {@code site} parameter holding
+  * a comma separated list of the navNames of the sites to export.
+  * <p>
+  * With {@code format=xml}, the default, the response is the same sepNav
+  * document as the fetchSepNav action returns.  With {@code format=zinc},
+  * or when the client accepts text/zinc and gives no format, it is a grid
+  * with a row per entity: its 'kind' (site, space, equip or point), its
+  * 'navName', its 'path' of navNames from the site down, and the 'axType'
+  * of points.
+  */
+final class SepNavExport
+{
+    private SepNavExport()
+    {
+    }
+
+    static void service(NHServer server, HttpServletRequest req, HttpServletResponse res)
+        throws IOException
+    {
+        if (!server.getCache().initialized())
+        {
+            res.sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE, Cache.NOT_INITIALIZED);
+            return;
+        }
+
+        String format = req.getParameter("format");
+        if (format == null)
+        {
+            String accept = req.getHeader("Accept");
+            format = accept != null && accept.contains(ZINC_MIME) ? ZINC : XML;
+        }
+        if (!format.equals(XML) && !format.equals(ZINC))
+        {
+            res.sendError(HttpServletResponse.SC_BAD_REQUEST, "Unknown format: " + format);
+            return;
+        }
+
+        Set<String> siteNames = siteNames(req.getParameter("site"));
+
+        res.setStatus(HttpServletResponse.SC_OK);
+        res.setCharacterEncoding("UTF-8");
+        long ticks = System.nanoTime();
+        try
+        {
+            if (format.equals(XML))
+            {
+                res.setContentType("text/xml; charset=utf-8");
+                XWriter out = new XWriter(res.getOutputStream());
+                server.getNav().writeSepNav(new Nav.XmlSepNavWriter(out), siteNames);
+                out.flush();
+            }
+            else
+            {
+                res.setContentType(ZINC_MIME + "; charset=utf-8");
+                PrintWriter out = new PrintWriter(new OutputStreamWriter(
+                    res.getOutputStream(), StandardCharsets.UTF_8));
+                ZincRowWriter writer = new ZincRowWriter(out);
+                writer.begin();
+                server.getNav().writeSepNav(writer, siteNames);
+                out.flush();
+            }
+        }
+        catch (UncheckedIOException e)
+        {
+            // the client went away
+            LOG.fine("SepNavExport aborted");
+            return;
+        }
+
+        if (LOG.isLoggable(Level.FINE))
+            LOG.fine("SepNavExport " + format + " " + siteNames + " in " +
+                (System.nanoTime() - ticks) / 1000000L + "ms");
+    }
+
+    /**
+      * Return the export as a grid, for clients that post a request grid
+      * rather than streaming the response.
+      */
+    static HGrid toGrid(NHServer server, Set<String> siteNames)
+    {
+        HGridBuilder gb = new HGridBuilder();
+        for (String col : COLS)
+            gb.addCol(col);
+
+        server.getNav().writeSepNav(new RowWriter()
+        {
+            @Override
+            void row(HVal[] cells)
+            {
+                gb.addRow(cells);
+            }
+        }, siteNames);
+
+        return gb.toGrid();
+    }
+
+    /**
+      * Split a comma separated list of site navNames, or return
+      * null for all the sites if there is none.
+      */
+    static Set<String> siteNames(String str)
+    {
+        if (str == null || str.trim().isEmpty()) return null;
+
+        Set<String> names = new LinkedHashSet<>();
+        for (String name : str.split(","))
+        {
+            if (!name.trim().isEmpty())
+                names.add(name.trim());
+        }
+        return names;
+    }
+
+////////////////////////////////////////////////////////////////
+// RowWriter
+////////////////////////////////////////////////////////////////
+
+    /**
+      * Flattens the nav tree into a row per entity.
+      */
+    private abstract static class RowWriter implements Nav.SepNavWriter
+    {
+        abstract void row(HVal[] cells);
+
+        @Override
+        public void open(String tagName, HDict tags, int indent, boolean empty)
+        {
+            // the root has no row of its own
+            if (tags == null) return;
+
+            String navName = tags.getStr(NAVNAME);
+            row(new HVal[] {HStr.make(tagName), HStr.make(navName), HStr.make(path(navName)), null});
+            if (!empty) path.addLast(navName);
+        }
+
+        @Override
+        public void close(String tagName, int indent)
+        {
+            if (indent > 0) path.removeLast();
+        }
+
+        @Override
+        public void point(HDict tags, int indent)
+        {
+            String navName = tags.getStr(NAVNAME);
+            row(new HVal[] {
+                HStr.make("point"),
+                HStr.make(navName),
+                HStr.make(path(navName)),
+                tags.get(AXTYPE, false)});
+        }
+
+        private String path(String navName)
+        {
+            StringBuilder sb = new StringBuilder();
+            for (String name : path)
+                sb.append(name).append('/');
+            return sb.append(navName).toString();
+        }
+
+        private final ArrayDeque<String> path = new ArrayDeque<>();
+    }
+
+    private static final class ZincRowWriter extends RowWriter
+    {
+        ZincRowWriter(PrintWriter out)
+        {
+            this.out = out;
+        }
+
+        void begin()
+        {
+            // the header of an empty grid ends with the column names and a newline
+            HGridBuilder gb = new HGridBuilder();
+            for (String col : COLS)
+                gb.addCol(col);
+            out.print(HZincWriter.gridToString(gb.toGrid()));
+        }
+
+        @Override
+        void row(HVal[] cells)
+        {
+            for (int i = 0; i < cells.length; i++)
+            {
+                if (i > 0) out.print(',');
+                if (cells[i] != null) out.print(cells[i].toZinc());
+            }
+            out.print('\n');
+
+            // PrintWriter swallows IOExceptions, so check
+            // now and then whether the client is still there
+            if (++rows % FLUSH_ROWS == 0)
+            {
+                out.flush();
+                if (out.checkError())
+                    throw new UncheckedIOException(new IOException("Response closed"));
+            }
+        }
+
+        private final PrintWriter out;
+        private int rows;
+    }
+
+////////////////////////////////////////////////////////////////
+// Attributes
+////////////////////////////////////////////////////////////////
+
+    static final String NAME = "sepNavExport";
+
+    private static final Logger LOG = Logger.getLogger("nhaystack");
+
+    private static final String XML = "xml";
+    private static final String ZINC = "zinc";
+    private static final String ZINC_MIME = "text/zinc";
+
+    private static final String NAVNAME = "navName";
+    private static final String AXTYPE = "axType";
+
+    private static final String[] COLS = {"kind", "navName", "path", "axType"};
+
+    // flush the response every so many rows
+    private static final int FLUSH_ROWS = 1000;
+}
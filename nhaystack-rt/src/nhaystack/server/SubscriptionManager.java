@@ -0,0 +1,207 @@
+//
+// Copyright 2026 Project Haystack All Rights Reserved.
+// Licensed under the Academic Free License version 3.0
+//
+// History:
+//   18 Oct 2026  Creation
+//
+package nhaystack.server;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.baja.sys.BComponent;
+import javax.baja.sys.BComponentEvent;
+import javax.baja.sys.Subscriber;
+import org.projecthaystack.HDict;
+
+/**
+  * SubscriptionManager subscribes each watched component exactly once,
+  * no matter how many NHWatches are interested in it.
+  * <p>
+  * Every component keeps the set of watches that reference it.  The
+  * component is unsubscribed when the last watch lets go of it.  When
+  * the 'out' slot of a component changes, each interested watch is told
+  * that the component is dirty, and the shared COV dict for it is
+  * discarded.  The COV dict is created again, once, by the first watch
+  * that polls for it.
+  * <p>
+  * The calls to the Niagara Subscriber are made outside of the lock
+  * that guards the watcher sets, so that component events can still be
+  * delivered while thousands of components are being subscribed.
+  */
+class SubscriptionManager
+{
+    SubscriptionManager(NHServer server)
+    {
+        this.server = server;
+    }
+
+    /**
+      * Register the watch's interest in the given components, subscribing
+      * any component that was not already being watched.
+      */
+    void subscribe(NHWatch watch, BComponent[] comps)
+    {
+        synchronized(subscriberLock)
+        {
+            ArrayList<BComponent> newComps = new ArrayList<>();
+            synchronized(this)
+            {
+                for (BComponent comp : comps)
+                {
+                    Set<NHWatch> watchers = watchersByComp.get(comp);
+                    if (watchers == null)
+                    {
+                        watchers = new HashSet<>();
+                        watchersByComp.put(comp, watchers);
+                        newComps.add(comp);
+                    }
+                    watchers.add(watch);
+                }
+            }
+
+            // outside of the lock on this, which cov() takes
+            // while it holds the lock on the entry in covs
+            for (BComponent comp : newComps)
+                covs.remove(comp);
+
+            if (LOG.isLoggable(Level.FINE))
+                LOG.fine("SubscriptionManager.subscribe " + watch.id() + ", length " +
+                    comps.length + ", new " + newComps.size());
+
+            if (!newComps.isEmpty())
+                subscriber.subscribe(newComps.toArray(EMPTY_COMPONENT_ARRAY), 0, null);
+        }
+    }
+
+    /**
+      * Remove the watch's interest in the given components, unsubscribing
+      * any component that is no longer referenced by any watch.
+      */
+    void unsubscribe(NHWatch watch, BComponent[] comps)
+    {
+        synchronized(subscriberLock)
+        {
+            ArrayList<BComponent> oldComps = new ArrayList<>();
+            synchronized(this)
+            {
+                for (BComponent comp : comps)
+                {
+                    Set<NHWatch> watchers = watchersByComp.get(comp);
+                    if (watchers == null) continue;
+
+                    watchers.remove(watch);
+                    if (watchers.isEmpty())
+                    {
+                        watchersByComp.remove(comp);
+                        oldComps.add(comp);
+                    }
+                }
+            }
+
+            // this waits for a cov() of the component that is under
+            // way, and removes whatever it has put back
+            for (BComponent comp : oldComps)
+                covs.remove(comp);
+
+            if (LOG.isLoggable(Level.FINE))
+                LOG.fine("SubscriptionManager.unsubscribe " + watch.id() + ", length " +
+                    comps.length + ", removed " + oldComps.size());
+
+            if (!oldComps.isEmpty())
+                subscriber.unsubscribe(oldComps.toArray(EMPTY_COMPONENT_ARRAY), null);
+        }
+    }
+
+    /**
+      * Return the current COV dict for a subscribed component.  The dict
+      * is shared by every watch until the component changes again.  A
+      * component that has been unsubscribed meanwhile gets a dict that
+      * is not kept, since nothing would remove it.
+      */
+    HDict cov(BComponent comp)
+    {
+        HDict cov = covs.computeIfAbsent(comp, c ->
+        {
+            synchronized(this)
+            {
+                if (!watchersByComp.containsKey(c)) return null;
+            }
+            return server.getTagManager().createComponentCovTags(c);
+        });
+        return cov != null ? cov : server.getTagManager().createComponentCovTags(comp);
+    }
+
+    /**
+      * Return the number of distinct components that are subscribed.
+      */
+    synchronized int subscribedCount()
+    {
+        return watchersByComp.size();
+    }
+
+    /**
+      * Return the number of watches that reference the given component.
+      */
+    synchronized int refCount(BComponent comp)
+    {
+        Set<NHWatch> watchers = watchersByComp.get(comp);
+        return watchers == null ? 0 : watchers.size();
+    }
+
+////////////////////////////////////////////////////////////////
+// NSubscriber
+////////////////////////////////////////////////////////////////
+
+    private class NSubscriber extends Subscriber
+    {
+        @Override
+        public void event(BComponentEvent event)
+        {
+            // we only care about the "out" slot
+            if (!event.getSlotName().equals("out"))
+                return;
+
+            BComponent comp = event.getSourceComponent();
+
+            NHWatch[] watchers;
+            synchronized(SubscriptionManager.this)
+            {
+                Set<NHWatch> set = watchersByComp.get(comp);
+                if (set == null) return;
+                watchers = set.toArray(EMPTY_WATCH_ARRAY);
+            }
+
+            // discard the stale cov before telling the watches, so
+            // that the next poll is guaranteed to see the new value
+            covs.remove(comp);
+            for (NHWatch watch : watchers)
+                watch.markDirty(comp);
+        }
+    }
+
+////////////////////////////////////////////////////////////////
+// Attributes
+////////////////////////////////////////////////////////////////
+
+    private static final Logger LOG = Logger.getLogger("nhaystack.watch");
+
+    private static final BComponent[] EMPTY_COMPONENT_ARRAY = new BComponent[0];
+    private static final NHWatch[] EMPTY_WATCH_ARRAY = new NHWatch[0];
+
+    private final NHServer server;
+    private final Subscriber subscriber = new NSubscriber();
+
+    // held for the whole of a subscribe or unsubscribe, so that the
+    // Subscriber calls are made in the same order as the map updates
+    private final Object subscriberLock = new Object();
+
+    private final Map<BComponent, Set<NHWatch>> watchersByComp = new HashMap<>(); // point -> interested watches
+    private final Map<BComponent, HDict> covs = new ConcurrentHashMap<>(); // point -> HDict (cov), built lazily
+}
@@ -144,6 +144,144 @@ public class TagManager implements NHaystackConst
         return doLookupComponent(id, true);
     }
 
+    /**
+      * Look up the BComponents for an array of HRef ids.  The result has
+      * an entry for each id, which is null wherever lookupComponent()
+      * would have returned null or thrown an exception.
+      * <p>
+      * The ids are resolved as a batch.  All of the sep refs are looked up
+      * in the Cache at once, and the slot paths are resolved by walking
+      * down from the root component, so that the folders and devices that
+      * the points have in common are only resolved once.  The handles of
+      * the components found by slot path are remembered, so that the next
+      * lookup of the same path only has to check that the component with
+      * that handle is still at that path.
+      */
+    BComponent[] lookupComponents(HRef[] ids)
+    {
+        BComponent[] comps = new BComponent[ids.length];
+
+        Map<String, BComponent> parents = new HashMap<>();
+        List<Integer> sepIndexes = new ArrayList<>();
+        List<NHRef> sepRefs = new ArrayList<>();
+
+        for (int i = 0; i < ids.length; i++)
+        {
+            try
+            {
+                NHRef nh = NHRef.make(ids[i]);
+                switch (nh.getSpace())
+                {
+                case NHRef.SEP:
+                    sepIndexes.add(i);
+                    sepRefs.add(nh);
+                    break;
+
+                case NHRef.COMP:
+                    BComponent comp = resolveSlotPath(SlotUtil.toNiagara(nh.getPath()), parents);
+                    comps[i] = comp != null && SpaceManager.isVisibleComponent(comp) ? comp : null;
+                    break;
+
+                case NHRef.COMP_BASE64:
+                    String ord = Base64.URI.decodeUTF8(nh.getPath());
+                    if (ord.startsWith("slot:"))
+                    {
+                        comp = resolveSlotPath(ord.substring("slot:".length()), parents);
+                        comps[i] = comp != null && SpaceManager.isVisibleComponent(comp) ? comp : null;
+                    }
+                    else
+                    {
+                        comps[i] = doLookupComponent(ids[i], true);
+                    }
+                    break;
+
+                default:
+                    comps[i] = doLookupComponent(ids[i], true);
+                }
+            }
+            catch (Exception e)
+            {
+                if (LOG.isLoggable(Level.FINE))
+                    LOG.fine("TagManager.lookupComponents cannot resolve " + ids[i] + ": " + e);
+            }
+        }
+
+        if (!sepRefs.isEmpty())
+        {
+            BComponent[] found = cache.lookupComponentsBySepRef(sepRefs.toArray(new NHRef[0]));
+            for (int i = 0; i < found.length; i++)
+                comps[sepIndexes.get(i)] = found[i];
+        }
+
+        return comps;
+    }
+
+    /**
+      * Resolve a slot path through the handle that was remembered for
+      * it, if the component with that handle is still at that path, or
+      * else by walking down from the root component.
+      */
+    private BComponent resolveSlotPath(String path, Map<String, BComponent> parents)
+    {
+        Object handle;
+        synchronized (slotPathHandles)
+        {
+            handle = slotPathHandles.get(path);
+        }
+
+        if (handle != null)
+        {
+            // the component may have been removed, renamed or moved
+            BComponent comp = service.getComponentSpace().findByHandle(handle);
+            if (comp != null && path.equals(comp.getSlotPath().getBody()))
+                return comp;
+
+            synchronized (slotPathHandles)
+            {
+                slotPathHandles.remove(path);
+            }
+        }
+
+        BComponent comp = walkSlotPath(path, parents);
+        if (comp != null && comp.getHandle() != null)
+        {
+            synchronized (slotPathHandles)
+            {
+                slotPathHandles.put(path, comp.getHandle());
+            }
+        }
+        return comp;
+    }
+
+    /**
+      * Resolve a slot path by walking down from the root component,
+      * remembering every parent that is resolved along the way.
+      */
+    private BComponent walkSlotPath(String path, Map<String, BComponent> parents)
+    {
+        if (path.isEmpty() || path.equals("/"))
+            return service.getComponentSpace().getRootComponent();
+
+        int n = path.lastIndexOf('/');
+        if (n < 0) return null;
+
+        String parentPath = path.substring(0, n);
+        BComponent parent;
+        if (parents.containsKey(parentPath))
+        {
+            parent = parents.get(parentPath);
+        }
+        else
+        {
+            parent = walkSlotPath(parentPath, parents);
+            parents.put(parentPath, parent);
+        }
+        if (parent == null) return null;
+
+        BValue child = parent.get(path.substring(n + 1));
+        return child instanceof BComponent ? (BComponent) child : null;
+    }
+
     BComponent doLookupComponent(HRef id, boolean mustBeVisible)
     {
         NHRef nh = NHRef.make(id);
@@ -620,6 +758,32 @@ public class TagManager implements NHaystackConst
             throw new IllegalStateException("Cannot create COV tags for " + comp.getSlotPath());
     }
 
+    /**
+      * Return the tags of the point or schedule, with the curVal,
+      * curStatus and axStatus tags made again from its current value.
+      * The other tags are kept as they are.
+      */
+    HDict refreshCurTags(HDict tags, BComponent comp)
+    {
+        HDictBuilder hdb = new HDictBuilder();
+        Iterator<Map.Entry<String, HVal>> it = tags.iterator();
+        while (it.hasNext())
+        {
+            Map.Entry<String, HVal> entry = it.next();
+            String name = entry.getKey();
+            if (!name.equals("curVal") && !name.equals("curStatus") && !name.equals("axStatus"))
+                hdb.add(name, entry.getValue());
+        }
+
+        HDict cov = createComponentCovTags(comp);
+        if (cov.has("curVal")) hdb.add("curVal", cov.get("curVal"));
+        if (cov.has("curStatus")) hdb.add("curStatus", cov.get("curStatus"));
+        if (comp instanceof BControlPoint)
+            hdb.add("axStatus", axStatus(((BControlPoint) comp).getStatus()));
+
+        return hdb.toDict();
+    }
+
     /**
       * Create the haystack representation of a BHistoryConfig.
       *
@@ -1442,5 +1606,17 @@ public class TagManager implements NHaystackConst
     private final BNHaystackService service;
     private final SpaceManager spaceMgr;
     private final Cache cache;
+
+    // the handles of the components that lookupComponents() has
+    // resolved by slot path, least recently used first
+    private static final int SLOT_PATH_HANDLES_SIZE = 10000;
+    private final Map<String, Object> slotPathHandles = new LinkedHashMap<String, Object>(16, 0.75f, true)
+    {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Object> eldest)
+        {
+            return size() > SLOT_PATH_HANDLES_SIZE;
+        }
+    };
 }
 
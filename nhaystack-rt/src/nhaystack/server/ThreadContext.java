@@ -14,6 +14,9 @@ import javax.baja.sys.Context;
 
 /**
   * ThreadContext manages Context meta-data associated with a Thread.
+  * <p>
+  * Threads are keyed by identity, not by name, since pooled threads
+  * often share a name.
   */
 public abstract class ThreadContext
 {
@@ -22,7 +25,7 @@ public abstract class ThreadContext
       */
     public static Context getContext(Thread thread)
     {
-        return HASH.get(thread.toString());
+        return HASH.get(thread);
     }
 
     /**
@@ -30,7 +33,7 @@ public abstract class ThreadContext
       */
     public static void putContext(Thread thread, Context cx)
     {
-        HASH.put(thread.toString(), cx);
+        HASH.put(thread, cx);
     }
 
     /**
@@ -38,9 +41,9 @@ public abstract class ThreadContext
       */
     public static void removeContext(Thread thread)
     {
-        HASH.remove(thread.toString());
+        HASH.remove(thread);
     }
 
-    private static final Map<String, Context> HASH = new ConcurrentHashMap<>();
+    private static final Map<Thread, Context> HASH = new ConcurrentHashMap<>();
 }
 
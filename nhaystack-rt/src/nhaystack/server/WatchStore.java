@@ -0,0 +1,340 @@
+//
+// Copyright 2026 Project Haystack All Rights Reserved.
+// Licensed under the Academic Free License version 3.0
+//
+// History:
+//   18 Oct 2026  Creation
+//
+package nhaystack.server;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.baja.sys.BasicContext;
+import javax.baja.sys.Context;
+import javax.baja.sys.Sys;
+import javax.baja.user.BUser;
+import javax.baja.user.BUserService;
+import org.projecthaystack.HDict;
+import org.projecthaystack.HDictBuilder;
+import org.projecthaystack.HGrid;
+import org.projecthaystack.HGridBuilder;
+import org.projecthaystack.HNum;
+import org.projecthaystack.HRef;
+import org.projecthaystack.HRow;
+import org.projecthaystack.HStr;
+import org.projecthaystack.HVal;
+import org.projecthaystack.HWatch;
+import org.projecthaystack.io.HZincReader;
+import org.projecthaystack.io.HZincWriter;
+
+/**
+  * WatchStore saves the open watches to a file when the service's
+  * 'persistWatches' property is set, so that clients can resume their
+  * watches after the station restarts, rather than all of them opening
+  * new watches and subscribing to every point at once.
+  * <p>
+  * The file is a Zinc grid with a row for every subscribed point of
+  * every watch (or a single row without an id for a watch that has no
+  * points), holding the watch's id, dis, lease and user, and the point's
+  * id and COV filter options.  It is rewritten a few seconds after the
+  * watches change, and again when the service stops.
+  * <p>
+  * Once the Cache has been built, the saved watches are re-opened
+  * under their old ids straight away, and their points are subscribed
+  * a chunk at a time on a background thread, under the Context of the
+  * user that opened the watch, so that it only gets back the points the
+  * user may still read.  The points of a watch whose user no longer
+  * exists, or was not saved, are not restored.  A client that polls one
+  * of them with its old watchId simply carries on.  A watch whose client
+  * never comes back times out after one lease, as usual.
+  */
+class WatchStore
+{
+    WatchStore(NHServer server, File file)
+    {
+        this.server = server;
+        this.file = file;
+    }
+
+    /**
+      * Called whenever a watch is opened, closed or changes its
+      * subscription.  Schedules the file to be rewritten shortly.
+      */
+    void changed()
+    {
+        if (!enabled()) return;
+
+        // while the watches are being restored the file still holds all
+        // of them, so hold the change back until the restore is done
+        if (restoring)
+        {
+            changedWhileRestoring.set(true);
+            if (restoring) return;
+        }
+
+        if (pending.compareAndSet(false, true))
+            server.scheduleWatchTask(this::saveQuietly, SAVE_DELAY);
+    }
+
+    /**
+      * Write the currently open watches to the file.
+      */
+    synchronized void save()
+    {
+        pending.set(false);
+        if (!enabled()) return;
+
+        ArrayList<HDict> rows = new ArrayList<>();
+        for (HWatch hwatch : server.getWatches())
+        {
+            NHWatch watch = (NHWatch) hwatch;
+            if (!watch.isOpen()) continue;
+
+            HDictBuilder hdb = new HDictBuilder()
+                .add("watchId", HStr.make(watch.id()))
+                .add("dis", HStr.make(watch.dis()))
+                .add("lease", watch.lease());
+            if (watch.user() != null)
+                hdb.add("user", HStr.make(watch.user()));
+            HDict base = hdb.toDict();
+
+            HDict[] points = watch.savedPoints();
+            if (points.length == 0)
+                rows.add(base);
+            for (HDict point : points)
+                rows.add(new HDictBuilder().add(base).add(point).toDict());
+        }
+
+        try
+        {
+            File dir = file.getParentFile();
+            if (dir != null && !dir.exists() && !dir.mkdirs())
+                throw new IOException("Cannot create " + dir);
+
+            File tmp = new File(file.getPath() + ".tmp");
+            try (OutputStream out = new FileOutputStream(tmp))
+            {
+                HZincWriter writer = new HZincWriter(out);
+                writer.writeGrid(HGridBuilder.dictsToGrid(rows.toArray(EMPTY_HDICT_ARRAY)));
+                writer.flush();
+            }
+            Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+
+            if (LOG.isLoggable(Level.FINE))
+                LOG.fine("WatchStore saved " + rows.size() + " rows to " + file);
+        }
+        catch (IOException e)
+        {
+            LOG.warning("WatchStore cannot save " + file + ": " + e.getMessage());
+        }
+    }
+
+    /**
+      * Re-open the watches that were saved in the file, and start
+      * re-subscribing their points in the background.  A watch whose
+      * user is no longer known is not re-opened, so that its client is
+      * told the watch is unknown and subscribes again.
+      */
+    void restore()
+    {
+        if (!enabled() || !file.exists()) return;
+
+        HGrid grid;
+        try (InputStream in = Files.newInputStream(file.toPath()))
+        {
+            grid = new HZincReader(in).readGrid();
+        }
+        catch (Exception e)
+        {
+            LOG.warning("WatchStore cannot read " + file + ": " + e.getMessage());
+            return;
+        }
+
+        // group the rows by watch, keeping the order they were saved in
+        Map<String, List<HRow>> rowsByWatch = new LinkedHashMap<>();
+        for (int i = 0; i < grid.numRows(); i++)
+        {
+            HRow row = grid.row(i);
+            rowsByWatch.computeIfAbsent(row.getStr("watchId"), k -> new ArrayList<>()).add(row);
+        }
+
+        Map<NHWatch, List<HRow>> restored = new LinkedHashMap<>();
+        for (Map.Entry<String, List<HRow>> entry : rowsByWatch.entrySet())
+        {
+            HRow first = entry.getValue().get(0);
+            String user = first.has("user") ? first.getStr("user") : null;
+            if (userContext(user) == null)
+            {
+                LOG.warning("WatchStore cannot restore " + entry.getKey() + ", unknown user " + user);
+                continue;
+            }
+
+            NHWatch watch = server.restoreWatch(
+                entry.getKey(),
+                first.getStr("dis"),
+                ((HNum) first.get("lease")).millis(),
+                user);
+
+            if (watch != null)
+                restored.put(watch, entry.getValue());
+        }
+
+        LOG.info("WatchStore restoring " + restored.size() + " watches from " + file);
+
+        restoring = true;
+        Thread thread = new Thread(() -> resubscribe(restored), "NHaystack:WatchRestore");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+////////////////////////////////////////////////////////////////
+// private
+////////////////////////////////////////////////////////////////
+
+    private boolean enabled()
+    {
+        return server.getService().getPersistWatches();
+    }
+
+    private void saveQuietly()
+    {
+        try
+        {
+            save();
+        }
+        catch (RuntimeException e)
+        {
+            LOG.log(Level.WARNING, "WatchStore cannot save " + file, e);
+        }
+    }
+
+    /**
+      * Subscribe the saved points of each restored watch, a chunk at a
+      * time, pausing between chunks so the station isn't swamped.
+      */
+    private void resubscribe(Map<NHWatch, List<HRow>> restored)
+    {
+        try
+        {
+            for (Map.Entry<NHWatch, List<HRow>> entry : restored.entrySet())
+            {
+                NHWatch watch = entry.getKey();
+
+                // the user may have been removed since restore()
+                Context cx = userContext(watch.user());
+                if (cx == null)
+                {
+                    LOG.warning("WatchStore cannot restore the points of " + watch.id() +
+                        ", unknown user " + watch.user() + ", closing it");
+                    if (watch.isOpen())
+                    {
+                        try
+                        {
+                            watch.close();
+                        }
+                        catch (RuntimeException e)
+                        {
+                            // closed meanwhile
+                        }
+                    }
+                    continue;
+                }
+
+                ArrayList<HRef> ids = new ArrayList<>();
+                ArrayList<CovFilter> filters = new ArrayList<>();
+                for (HRow row : entry.getValue())
+                {
+                    HVal id = row.get("id", false);
+                    if (!(id instanceof HRef)) continue;
+                    ids.add((HRef) id);
+                    filters.add(CovFilter.make(row, null));
+                }
+
+                for (int i = 0; i < ids.size() && watch.isOpen(); i += RESTORE_CHUNK_SIZE)
+                {
+                    int to = Math.min(ids.size(), i + RESTORE_CHUNK_SIZE);
+                    Thread thread = Thread.currentThread();
+                    ThreadContext.putContext(thread, cx);
+                    try
+                    {
+                        watch.sub(
+                            ids.subList(i, to).toArray(new HRef[0]),
+                            filters.subList(i, to).toArray(new CovFilter[0]));
+                    }
+                    catch (RuntimeException e)
+                    {
+                        // most likely the watch was closed meanwhile
+                        if (watch.isOpen())
+                            LOG.log(Level.WARNING, "WatchStore cannot restore " + watch.id(), e);
+                    }
+                    finally
+                    {
+                        ThreadContext.removeContext(thread);
+                    }
+
+                    Thread.sleep(RESTORE_PAUSE);
+                }
+            }
+            LOG.info("WatchStore finished restoring watches");
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+        }
+        finally
+        {
+            restoring = false;
+            if (changedWhileRestoring.getAndSet(false))
+                changed();
+        }
+    }
+
+    /**
+      * Return a Context for the user, or null if there is no such user.
+      */
+    private static Context userContext(String name)
+    {
+        if (name == null) return null;
+
+        BUserService userService = (BUserService) Sys.getService(BUserService.TYPE);
+        BUser user = userService.getUser(name);
+        return user == null ? null : new BasicContext(user);
+    }
+
+////////////////////////////////////////////////////////////////
+// Attributes
+////////////////////////////////////////////////////////////////
+
+    static final String FILE_NAME = "nhaystack/watches.zinc";
+
+    private static final Logger LOG = Logger.getLogger("nhaystack.watch");
+
+    private static final HDict[] EMPTY_HDICT_ARRAY = new HDict[0];
+
+    // wait this long after a change before rewriting the file
+    private static final long SAVE_DELAY = 5000L;
+
+    private static final int RESTORE_CHUNK_SIZE = 500;
+    private static final long RESTORE_PAUSE = 250L;
+
+    private final NHServer server;
+    private final File file;
+
+    private final AtomicBoolean pending = new AtomicBoolean();
+    private volatile boolean restoring;
+
+    // set when a watch changes during a restore
+    private final AtomicBoolean changedWhileRestoring = new AtomicBoolean();
+}
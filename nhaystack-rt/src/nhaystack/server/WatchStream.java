@@ -0,0 +1,153 @@
+//
+// Copyright 2026 Project Haystack All Rights Reserved.
+// Licensed under the Academic Free License version 3.0
+//
+// History:
+//   18 Oct 2026  Creation
+//
+package nhaystack.server;
+
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import org.projecthaystack.HGrid;
+import org.projecthaystack.HGridBuilder;
+import org.projecthaystack.HRow;
+import org.projecthaystack.io.HJsonWriter;
+import org.projecthaystack.io.HZincWriter;
+
+/**
+  * WatchStream pushes the changes of an open NHWatch to an HTTP client
+  * as Server-Sent Events, instead of making the client poll for them.
+  * <p>
+  * The stream is opened with a GET on {@code watchStream?watchId=...}.
+  * Each COV is sent as a 'cov' event whose data is a one-row grid,
+  * encoded as Zinc, or as JSON if {@code format=json} is given or the
+  * client accepts 'application/json'.  A comment line is sent as a
+  * heartbeat whenever nothing has changed for a while; the optional
+  * {@code heartbeat} parameter sets how long, in millis, between one
+  * second and five minutes.
+  * <p>
+  * Every iteration polls the watch, so the lease is renewed for as long
+  * as the connection stays open.  The stream ends when the watch is closed
+  * or the client goes away.
+  */
+final class WatchStream
+{
+    private WatchStream()
+    {
+    }
+
+    static void service(NHServer server, HttpServletRequest req, HttpServletResponse res)
+        throws IOException
+    {
+        if (!server.getCache().initialized())
+            throw new IllegalStateException(Cache.NOT_INITIALIZED);
+
+        String watchId = req.getParameter("watchId");
+        NHWatch watch = watchId == null ? null : (NHWatch) server.getWatch(watchId);
+        if (watch == null || !watch.isOpen())
+        {
+            res.sendError(HttpServletResponse.SC_NOT_FOUND, "Unknown watch: " + watchId);
+            return;
+        }
+
+        boolean json = "json".equals(req.getParameter("format")) ||
+            (req.getParameter("format") == null &&
+             req.getHeader("Accept") != null &&
+             req.getHeader("Accept").contains("application/json"));
+
+        long heartbeat = HEARTBEAT_INTERVAL;
+        if (req.getParameter("heartbeat") != null)
+        {
+            try
+            {
+                heartbeat = Long.parseLong(req.getParameter("heartbeat"));
+            }
+            catch (NumberFormatException e)
+            {
+                res.sendError(HttpServletResponse.SC_BAD_REQUEST,
+                    "Invalid heartbeat: " + req.getParameter("heartbeat"));
+                return;
+            }
+            heartbeat = Math.min(MAX_HEARTBEAT_INTERVAL, Math.max(MIN_HEARTBEAT_INTERVAL, heartbeat));
+        }
+
+        res.setStatus(HttpServletResponse.SC_OK);
+        res.setContentType("text/event-stream; charset=utf-8");
+        res.setHeader("Cache-Control", "no-cache");
+
+        PrintWriter out = new PrintWriter(new OutputStreamWriter(
+            res.getOutputStream(), StandardCharsets.UTF_8));
+
+        if (LOG.isLoggable(Level.FINE))
+            LOG.fine("WatchStream begin " + watchId);
+
+        int events = 0;
+        try
+        {
+            out.print(": watch " + watchId + "\n\n");
+            out.flush();
+
+            while (watch.isOpen() && !out.checkError())
+            {
+                HGrid grid = watch.pollChanges(heartbeat);
+                if (grid.isEmpty())
+                {
+                    out.print(": heartbeat\n\n");
+                }
+                else
+                {
+                    for (int i = 0; i < grid.numRows(); i++)
+                    {
+                        writeEvent(out, grid.row(i), json);
+                        events++;
+                    }
+                }
+                out.flush();
+            }
+        }
+        catch (RuntimeException e)
+        {
+            // the watch was closed underneath us
+            if (watch.isOpen()) throw e;
+        }
+
+        if (LOG.isLoggable(Level.FINE))
+            LOG.fine("WatchStream end   " + watchId + ", events " + events);
+    }
+
+    private static void writeEvent(PrintWriter out, HRow row, boolean json)
+    {
+        HGrid grid = HGridBuilder.dictToGrid(row);
+        String data = json ?
+            HJsonWriter.gridToString(grid) :
+            HZincWriter.gridToString(grid);
+
+        out.print("event: cov\n");
+        for (String line : data.split("\n"))
+        {
+            out.print("data: ");
+            out.print(line);
+            out.print('\n');
+        }
+        out.print('\n');
+    }
+
+////////////////////////////////////////////////////////////////
+// Attributes
+////////////////////////////////////////////////////////////////
+
+    static final String NAME = "watchStream";
+
+    private static final Logger LOG = Logger.getLogger("nhaystack.watch");
+
+    private static final long HEARTBEAT_INTERVAL = 15000L;
+    private static final long MIN_HEARTBEAT_INTERVAL = 1000L;
+    private static final long MAX_HEARTBEAT_INTERVAL = 5 * 60 * 1000L;
+}
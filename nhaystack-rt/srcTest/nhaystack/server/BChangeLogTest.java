@@ -0,0 +1,123 @@
+//
+// Copyright 2026 Project Haystack All Rights Reserved.
+// Licensed under the Academic Free License version 3.0
+//
+// History:
+//   18 Oct 2026  Creation
+//
+
+package nhaystack.server;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.projecthaystack.*;
+import org.testng.annotations.Test;
+
+import javax.baja.nre.annotations.NiagaraType;
+import javax.baja.sys.*;
+import javax.baja.test.BTestNg;
+
+import static org.testng.Assert.*;
+
+@NiagaraType
+@Test
+public class BChangeLogTest extends BTestNg
+{
+/*+ ------------ BEGIN BAJA AUTO GENERATED CODE ------------ +*/
+/*@ $nhaystack.server.BChangeLogTest(71716839)1.0$ @*/
+/* Generated Sun Oct 18 16:40:52 AEST 2026 by Slot-o-Matic (c) Tridium, Inc. 2012 */
+
+////////////////////////////////////////////////////////////////
+// Type
+////////////////////////////////////////////////////////////////
+
+  @Override
+  public Type getType() { return TYPE; }
+  public static final Type TYPE = Sys.loadType(BChangeLogTest.class);
+
+/*+ ------------ END BAJA AUTO GENERATED CODE -------------- +*/
+  @Test
+  public void testFingerprint()
+  {
+    HDict a = new HDictBuilder()
+      .add("id", HRef.make("c.1"))
+      .add("point")
+      .add("dis", "Zone Temp")
+      .add("curVal", HNum.make(72))
+      .toDict();
+    HDict b = new HDictBuilder()
+      .add("curVal", HNum.make(68))
+      .add("dis", "Zone Temp")
+      .add("point")
+      .add("id", HRef.make("c.1"))
+      .toDict();
+    HDict c = new HDictBuilder()
+      .add("id", HRef.make("c.1"))
+      .add("point")
+      .add("dis", "Zone Temp")
+      .add("sensor")
+      .toDict();
+
+    // the order of the tags and the value of the point do not matter
+    assertEquals(ChangeLog.fingerprint(a), ChangeLog.fingerprint(b));
+    assertNotEquals(ChangeLog.fingerprint(a), ChangeLog.fingerprint(c));
+  }
+
+  @Test
+  public void testSince()
+  {
+    ChangeLog log = new ChangeLog(null);
+    long start = log.version();
+
+    // nothing is known until the first scan
+    assertNull(log.since(start));
+
+    Map<String, Long> scan = new HashMap<>();
+    scan.put("c.1", 1L);
+    scan.put("c.2", 2L);
+    assertEquals(log.apply(new HashMap<>(scan)), 0);
+
+    // a client that read everything before the first scan must read again
+    assertNull(log.since(start));
+    long base = log.version();
+    assertEquals(base, start + 1);
+    assertEquals(log.since(base).size(), 0);
+
+    scan.put("c.3", 3L);
+    scan.put("c.2", 20L);
+    assertEquals(log.apply(new HashMap<>(scan)), 2);
+    long v1 = log.version();
+    assertEquals(v1, base + 2);
+
+    scan.put("c.3", 30L);
+    scan.remove("c.1");
+    assertEquals(log.apply(new HashMap<>(scan)), 2);
+
+    List<ChangeLog.Change> changes = log.since(base);
+    assertEquals(changes.size(), 3);
+    assertEquals(kindOf(changes, "c.1"), ChangeLog.REMOVED);
+    assertEquals(kindOf(changes, "c.2"), ChangeLog.UPDATED);
+
+    // added and then updated is still added
+    assertEquals(kindOf(changes, "c.3"), ChangeLog.ADDED);
+
+    changes = log.since(v1);
+    assertEquals(changes.size(), 2);
+    assertEquals(kindOf(changes, "c.3"), ChangeLog.UPDATED);
+    assertEquals(log.since(log.version()).size(), 0);
+
+    // versions from before the first scan, or not handed out yet
+    assertNull(log.since(start));
+    assertNull(log.since(log.version() + 1));
+  }
+
+  private static String kindOf(List<ChangeLog.Change> changes, String id)
+  {
+    for (ChangeLog.Change change : changes)
+    {
+      if (change.id.equals(id)) return change.kind;
+    }
+    return null;
+  }
+}
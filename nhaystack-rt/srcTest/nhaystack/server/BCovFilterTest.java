@@ -0,0 +1,104 @@
+//
+// Copyright 2026 Project Haystack All Rights Reserved.
+// Licensed under the Academic Free License version 3.0
+//
+// History:
+//   18 Oct 2026  Creation
+//
+
+package nhaystack.server;
+
+import org.projecthaystack.*;
+import org.testng.annotations.Test;
+
+import javax.baja.nre.annotations.NiagaraType;
+import javax.baja.sys.*;
+import javax.baja.test.BTestNg;
+
+import static org.testng.Assert.*;
+
+@NiagaraType
+@Test
+public class BCovFilterTest extends BTestNg
+{
+/*+ ------------ BEGIN BAJA AUTO GENERATED CODE ------------ +*/
+/*@ $nhaystack.server.BCovFilterTest(2979906276)1.0$ @*/
+/* Generated Sun Oct 18 10:12:44 AEST 2026 by Slot-o-Matic (c) Tridium, Inc. 2012 */
+
+////////////////////////////////////////////////////////////////
+// Type
+////////////////////////////////////////////////////////////////
+  
+  @Override
+  public Type getType() { return TYPE; }
+  public static final Type TYPE = Sys.loadType(BCovFilterTest.class);
+
+/*+ ------------ END BAJA AUTO GENERATED CODE -------------- +*/
+  @Test
+  public void testMake()
+  {
+    assertNull(CovFilter.make(HDict.EMPTY, null));
+
+    CovFilter f = CovFilter.make(new HDictBuilder()
+      .add("minInterval", HNum.make(5, "s"))
+      .add("deadband", HNum.make(2, "%"))
+      .toDict(), null);
+    assertEquals(f.minInterval, 5000L);
+    assertEquals(f.deadband, 2d);
+    assertTrue(f.percent);
+
+    // unitless minInterval is millis, row options override the defaults
+    CovFilter g = CovFilter.make(new HDictBuilder()
+      .add("minInterval", HNum.make(250))
+      .toDict(), f);
+    assertEquals(g.minInterval, 250L);
+    assertEquals(g.deadband, 2d);
+    assertTrue(g.percent);
+
+    CovFilter h = CovFilter.make(new HDictBuilder()
+      .add("deadband", HNum.make(0.5))
+      .toDict(), f);
+    assertEquals(h.minInterval, 5000L);
+    assertEquals(h.deadband, 0.5d);
+    assertFalse(h.percent);
+  }
+
+  @Test
+  public void testDeadband()
+  {
+    CovFilter f = CovFilter.make(
+      new HDictBuilder().add("deadband", HNum.make(1)).toDict(), null).forPoint();
+
+    assertTrue(f.isSignificant(10, 0));
+    f.reported(10, 0, 0);
+    assertFalse(f.isSignificant(10.5, 0));
+    assertFalse(f.isSignificant(9, 0));
+    assertTrue(f.isSignificant(11.5, 0));
+
+    // a status change is always significant
+    assertTrue(f.isSignificant(10, 1));
+
+    CovFilter p = CovFilter.make(
+      new HDictBuilder().add("deadband", HNum.make(10, "%")).toDict(), null).forPoint();
+    p.reported(200, 0, 0);
+    assertFalse(p.isSignificant(215, 0));
+    assertTrue(p.isSignificant(225, 0));
+  }
+
+  @Test
+  public void testMinInterval()
+  {
+    CovFilter f = CovFilter.make(
+      new HDictBuilder().add("minInterval", HNum.make(1000)).toDict(), null).forPoint();
+
+    assertEquals(f.delay(5000), 0L);
+    f.reported(1, 0, 5000);
+    assertEquals(f.delay(5000), 1000L);
+    assertEquals(f.delay(5400), 600L);
+    assertEquals(f.delay(6000), 0L);
+    assertEquals(f.delay(9000), 0L);
+
+    // no deadband, so every change is significant
+    assertTrue(f.isSignificant(1, 0));
+  }
+}
@@ -0,0 +1,141 @@
+//
+// Copyright 2026 Project Haystack All Rights Reserved.
+// Licensed under the Academic Free License version 3.0
+//
+// History:
+//   18 Oct 2026  Creation
+//
+
+package nhaystack.server;
+
+import java.util.ArrayList;
+import java.util.List;
+import org.projecthaystack.*;
+import org.testng.annotations.Test;
+
+import javax.baja.nre.annotations.NiagaraType;
+import javax.baja.sys.*;
+import javax.baja.test.BTestNg;
+
+import static org.testng.Assert.*;
+
+@NiagaraType
+@Test
+public class BHisDownsampleTest extends BTestNg
+{
+/*+ ------------ BEGIN BAJA AUTO GENERATED CODE ------------ +*/
+/*@ $nhaystack.server.BHisDownsampleTest(3340671925)1.0$ @*/
+/* Generated Sun Oct 18 10:12:44 AEST 2026 by Slot-o-Matic (c) Tridium, Inc. 2012 */
+
+////////////////////////////////////////////////////////////////
+// Type
+////////////////////////////////////////////////////////////////
+  
+  @Override
+  public Type getType() { return TYPE; }
+  public static final Type TYPE = Sys.loadType(BHisDownsampleTest.class);
+
+/*+ ------------ END BAJA AUTO GENERATED CODE -------------- +*/
+  @Test
+  public void testMake()
+  {
+    HDateTimeRange range = HDateTimeRange.make("2026-10-01", TZ);
+
+    assertNull(HisDownsample.make(HDict.EMPTY, NUMBER, range, (ts, val) -> {}));
+    assertEquals(HisDownsample.make(opts(100, null), NUMBER, range, (ts, val) -> {}).method(), "lttb");
+    assertEquals(HisDownsample.make(opts(100, "minmax"), NUMBER, range, (ts, val) -> {}).method(), "minmax");
+
+    HDict bool = new HDictBuilder().add("kind", "Bool").toDict();
+    assertThrows(IllegalArgumentException.class,
+      () -> HisDownsample.make(opts(100, null), bool, range, (ts, val) -> {}));
+    assertThrows(IllegalArgumentException.class,
+      () -> HisDownsample.make(opts(2, null), NUMBER, range, (ts, val) -> {}));
+    assertThrows(IllegalArgumentException.class,
+      () -> HisDownsample.make(opts(HisDownsample.MOST_POINTS + 1, null), NUMBER, range, (ts, val) -> {}));
+    assertThrows(IllegalArgumentException.class,
+      () -> HisDownsample.make(opts(100, "average"), NUMBER, range, (ts, val) -> {}));
+  }
+
+  @Test
+  public void testLttb()
+  {
+    List<HHisItem> items = downsample("lttb");
+    assertTrue(items.size() <= 20);
+
+    // the first and last items are always kept
+    assertEquals(items.get(0).ts, ts(1));
+    assertEquals(items.get(items.size() - 1).ts, ts(COUNT));
+    assertInOrder(items);
+    assertSpikeKept(items);
+  }
+
+  @Test
+  public void testMinMax()
+  {
+    List<HHisItem> items = downsample("minmax");
+    assertTrue(items.size() <= 20);
+    assertInOrder(items);
+    assertSpikeKept(items);
+  }
+
+////////////////////////////////////////////////////////////////
+// private
+////////////////////////////////////////////////////////////////
+
+  private static HDict opts(int maxPoints, String method)
+  {
+    HDictBuilder hdb = new HDictBuilder().add("maxPoints", maxPoints);
+    if (method != null) hdb.add("downsample", method);
+    return hdb.toDict();
+  }
+
+  /**
+   * Downsample a day of 10 second samples of a sine wave with a spike in it.
+   */
+  private static List<HHisItem> downsample(String method)
+  {
+    HDateTimeRange range = HDateTimeRange.make("2026-10-01", TZ);
+    List<HHisItem> items = new ArrayList<>();
+    HisDownsample d = HisDownsample.make(opts(20, method), NUMBER, range,
+      (ts, val) -> items.add(HHisItem.make(ts, val)));
+
+    for (int i = 1; i <= COUNT; i++)
+    {
+      double v = i == SPIKE ? 100 : Math.sin(i / 500.0) * 10;
+      d.add(ts(i), HNum.make(v, "kW"));
+    }
+    d.finish();
+    return items;
+  }
+
+  private static HDateTime ts(int i)
+  {
+    return HDateTime.make(HDateTimeRange.make("2026-10-01", TZ).start.millis() + i * 10000L, TZ);
+  }
+
+  private static void assertInOrder(List<HHisItem> items)
+  {
+    for (int i = 1; i < items.size(); i++)
+      assertTrue(items.get(i - 1).ts.millis() < items.get(i).ts.millis());
+  }
+
+  private static void assertSpikeKept(List<HHisItem> items)
+  {
+    for (HHisItem item : items)
+    {
+      if (item.ts.equals(ts(SPIKE)))
+      {
+        assertEquals(((HNum) item.val).val, 100d);
+        assertEquals(((HNum) item.val).unit, "kW");
+        return;
+      }
+    }
+    fail("spike was dropped");
+  }
+
+  private static final HTimeZone TZ = HTimeZone.make("New_York");
+  private static final HDict NUMBER = new HDictBuilder().add("kind", "Number").toDict();
+
+  private static final int COUNT = 8640;
+  private static final int SPIKE = 4000;
+}
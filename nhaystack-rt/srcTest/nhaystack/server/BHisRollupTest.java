@@ -0,0 +1,126 @@
+//
+// Copyright 2026 Project Haystack All Rights Reserved.
+// Licensed under the Academic Free License version 3.0
+//
+// History:
+//   18 Oct 2026  Creation
+//
+
+package nhaystack.server;
+
+import java.util.ArrayList;
+import java.util.List;
+import org.projecthaystack.*;
+import org.testng.annotations.Test;
+
+import javax.baja.nre.annotations.NiagaraType;
+import javax.baja.sys.*;
+import javax.baja.test.BTestNg;
+
+import static org.testng.Assert.*;
+
+@NiagaraType
+@Test
+public class BHisRollupTest extends BTestNg
+{
+/*+ ------------ BEGIN BAJA AUTO GENERATED CODE ------------ +*/
+/*@ $nhaystack.server.BHisRollupTest(1873205412)1.0$ @*/
+/* Generated Sun Oct 18 10:12:44 AEST 2026 by Slot-o-Matic (c) Tridium, Inc. 2012 */
+
+////////////////////////////////////////////////////////////////
+// Type
+////////////////////////////////////////////////////////////////
+  
+  @Override
+  public Type getType() { return TYPE; }
+  public static final Type TYPE = Sys.loadType(BHisRollupTest.class);
+
+/*+ ------------ END BAJA AUTO GENERATED CODE -------------- +*/
+  @Test
+  public void testMake()
+  {
+    HDateTimeRange range = HDateTimeRange.make("2026-10-01", TZ);
+
+    assertNull(HisRollup.make(HDict.EMPTY, NUMBER, range, (ts, val) -> {}));
+
+    HisRollup r = HisRollup.make(opts(HNum.make(15, "min"), null), NUMBER, range, (ts, val) -> {});
+    assertEquals(r.fold, HisRollup.Fold.AVG);
+
+    // count, first and last work for any kind
+    HDict bool = new HDictBuilder().add("kind", "Bool").toDict();
+    assertEquals(HisRollup.make(opts(HNum.make(1, "h"), "count"), bool, range, (ts, val) -> {}).fold, HisRollup.Fold.COUNT);
+
+    assertThrows(IllegalArgumentException.class,
+      () -> HisRollup.make(opts(HNum.make(1, "h"), "avg"), bool, range, (ts, val) -> {}));
+    assertThrows(IllegalArgumentException.class,
+      () -> HisRollup.make(opts(HNum.make(1, "h"), "median"), NUMBER, range, (ts, val) -> {}));
+    assertThrows(IllegalArgumentException.class,
+      () -> HisRollup.make(opts(HNum.make(0), "avg"), NUMBER, range, (ts, val) -> {}));
+  }
+
+  @Test
+  public void testFolds()
+  {
+    assertEquals(rollup("avg"),   "00:00:00=15kW,01:00:00=40kW");
+    assertEquals(rollup("min"),   "00:00:00=10kW,01:00:00=40kW");
+    assertEquals(rollup("max"),   "00:00:00=20kW,01:00:00=40kW");
+    assertEquals(rollup("sum"),   "00:00:00=30kW,01:00:00=40kW");
+    assertEquals(rollup("first"), "00:00:00=10kW,01:00:00=40kW");
+    assertEquals(rollup("last"),  "00:00:00=20kW,01:00:00=40kW");
+
+    // 20kW holds from 01:00 to 01:15, then 40kW until 02:00
+    assertEquals(rollup("twavg"), "00:00:00=15kW,01:00:00=35kW");
+  }
+
+  @Test
+  public void testDays()
+  {
+    HDateTimeRange range = HDateTimeRange.make("2026-11-01,2026-11-02", TZ);
+    List<HHisItem> items = new ArrayList<>();
+    HisRollup r = HisRollup.make(opts(HNum.make(1, "day"), "count"), NUMBER, range,
+      (ts, val) -> items.add(HHisItem.make(ts, val)));
+
+    // daylight saving ends on 1 Nov, so that day is 25 hours long
+    r.add(HDateTime.make(HDate.make(2026, 11, 1), HTime.make(0, 30), TZ), HNum.make(1));
+    r.add(HDateTime.make(HDate.make(2026, 11, 1), HTime.make(23, 30), TZ), HNum.make(2));
+    r.add(HDateTime.make(HDate.make(2026, 11, 2), HTime.make(0, 30), TZ), HNum.make(3));
+    r.finish();
+
+    assertEquals(items.size(), 2);
+    assertEquals(items.get(0).ts, HDateTime.make(HDate.make(2026, 11, 1), HTime.MIDNIGHT, TZ));
+    assertEquals(((HNum) items.get(0).val).val, 2d);
+    assertEquals(items.get(1).ts, HDateTime.make(HDate.make(2026, 11, 2), HTime.MIDNIGHT, TZ));
+    assertEquals(((HNum) items.get(1).val).val, 1d);
+  }
+
+////////////////////////////////////////////////////////////////
+// private
+////////////////////////////////////////////////////////////////
+
+  private static HDict opts(HNum interval, String fold)
+  {
+    HDictBuilder hdb = new HDictBuilder().add("interval", interval);
+    if (fold != null) hdb.add("fold", fold);
+    return hdb.toDict();
+  }
+
+  private static String rollup(String fold)
+  {
+    HDateTimeRange range = HDateTimeRange.make("2026-10-01", TZ);
+    StringBuilder sb = new StringBuilder();
+    HisRollup r = HisRollup.make(opts(HNum.make(1, "h"), fold), NUMBER, range, (ts, val) ->
+    {
+      if (sb.length() > 0) sb.append(',');
+      sb.append(ts.time).append('=').append(val);
+    });
+
+    r.add(HDateTime.make(HDate.make(2026, 10, 1), HTime.make(0, 0), TZ), HNum.make(10, "kW"));
+    r.add(HDateTime.make(HDate.make(2026, 10, 1), HTime.make(0, 30), TZ), HNum.make(20, "kW"));
+    r.add(HDateTime.make(HDate.make(2026, 10, 1), HTime.make(1, 15), TZ), HNum.make(40, "kW"));
+    r.finish();
+    return sb.toString();
+  }
+
+  private static final HTimeZone TZ = HTimeZone.make("New_York");
+  private static final HDict NUMBER = new HDictBuilder().add("kind", "Number").toDict();
+}
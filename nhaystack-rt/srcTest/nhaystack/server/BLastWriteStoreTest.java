@@ -0,0 +1,82 @@
+//
+// Copyright 2026 Project Haystack All Rights Reserved.
+// Licensed under the Academic Free License version 3.0
+//
+// History:
+//   18 Oct 2026  Creation
+//
+
+package nhaystack.server;
+
+import java.util.ArrayList;
+import org.projecthaystack.*;
+import org.testng.annotations.Test;
+
+import javax.baja.nre.annotations.NiagaraType;
+import javax.baja.sys.*;
+import javax.baja.test.BTestNg;
+
+import static org.testng.Assert.*;
+
+@NiagaraType
+@Test
+public class BLastWriteStoreTest extends BTestNg
+{
+/*+ ------------ BEGIN BAJA AUTO GENERATED CODE ------------ +*/
+/*@ $nhaystack.server.BLastWriteStoreTest(2607230330)1.0$ @*/
+/* Generated Sun Oct 18 14:02:17 AEST 2026 by Slot-o-Matic (c) Tridium, Inc. 2012 */
+
+////////////////////////////////////////////////////////////////
+// Type
+////////////////////////////////////////////////////////////////
+
+  @Override
+  public Type getType() { return TYPE; }
+  public static final Type TYPE = Sys.loadType(BLastWriteStoreTest.class);
+
+/*+ ------------ END BAJA AUTO GENERATED CODE -------------- +*/
+  @Test
+  public void testLastWhos()
+  {
+    LastWriteStore.Slots slots = new LastWriteStore.Slots();
+    assertEquals(slots.lastWhos().length, 17);
+    assertNull(slots.lastWhos()[7]);
+
+    slots.set(8, "alice", 1000L);
+    slots.set(17, "bob", 2000L);
+    slots.set(8, "carol", 3000L);
+
+    String[] whos = slots.lastWhos();
+    assertEquals(whos[7], "carol");
+    assertEquals(whos[16], "bob");
+    assertNull(whos[0]);
+
+    // out of range levels are ignored
+    slots.set(0, "dave", 4000L);
+    slots.set(18, "dave", 4000L);
+    assertEquals(slots.lastWhos(), whos);
+  }
+
+  @Test
+  public void testBusyLevel()
+  {
+    LastWriteStore.Slots slots = new LastWriteStore.Slots();
+    slots.set(8, "operator", 0L);
+    for (int i = 0; i < 1000; i++)
+      slots.set(16, "who" + i, i + 1);
+
+    // the writes to level 16 do not push out who wrote level 8
+    String[] whos = slots.lastWhos();
+    assertEquals(whos[7], "operator");
+    assertEquals(whos[15], "who999");
+
+    ArrayList<HDict> rows = new ArrayList<>();
+    slots.toRows("h:1", rows);
+    assertEquals(rows.size(), 2);
+    assertEquals(rows.get(0).getStr("point"), "h:1");
+    assertEquals(rows.get(0).getInt("level"), 8);
+    assertEquals(rows.get(0).getStr("who"), "operator");
+    assertEquals(rows.get(1).getInt("level"), 16);
+    assertEquals(rows.get(1).getStr("who"), "who999");
+  }
+}
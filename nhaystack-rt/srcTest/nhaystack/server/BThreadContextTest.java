@@ -0,0 +1,137 @@
+//
+// Copyright 2026 Project Haystack All Rights Reserved.
+// Licensed under the Academic Free License version 3.0
+//
+// History:
+//   18 Oct 2026  Creation
+//
+
+package nhaystack.server;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.testng.annotations.Test;
+
+import javax.baja.nre.annotations.NiagaraType;
+import javax.baja.sys.*;
+import javax.baja.test.BTestNg;
+import javax.baja.user.BUser;
+
+import static org.testng.Assert.*;
+
+@NiagaraType
+@Test
+public class BThreadContextTest extends BTestNg
+{
+/*+ ------------ BEGIN BAJA AUTO GENERATED CODE ------------ +*/
+/*@ $nhaystack.server.BThreadContextTest(1394812547)1.0$ @*/
+/* Generated Sun Oct 18 18:12:05 AEST 2026 by Slot-o-Matic (c) Tridium, Inc. 2012 */
+
+////////////////////////////////////////////////////////////////
+// Type
+////////////////////////////////////////////////////////////////
+
+  @Override
+  public Type getType() { return TYPE; }
+  public static final Type TYPE = Sys.loadType(BThreadContextTest.class);
+
+/*+ ------------ END BAJA AUTO GENERATED CODE -------------- +*/
+  @Test
+  public void testSameThreadName() throws Exception
+  {
+    Context alice = new BasicContext(new BUser());
+    Context bob = new BasicContext(new BUser());
+
+    Thread t1 = new Thread(() -> {}, "NHaystack:Worker");
+    Thread t2 = new Thread(() -> {}, "NHaystack:Worker");
+    ThreadContext.putContext(t1, alice);
+    ThreadContext.putContext(t2, bob);
+    try
+    {
+      assertSame(ThreadContext.getContext(t1), alice);
+      assertSame(ThreadContext.getContext(t2), bob);
+
+      ThreadContext.removeContext(t1);
+      assertNull(ThreadContext.getContext(t1));
+      assertSame(ThreadContext.getContext(t2), bob);
+    }
+    finally
+    {
+      ThreadContext.removeContext(t1);
+      ThreadContext.removeContext(t2);
+    }
+  }
+
+  @Test
+  public void testRunParallelTwoUsers() throws Exception
+  {
+    // every worker has the same name, like the server's pool
+    ExecutorService pool = Executors.newFixedThreadPool(4, r -> new Thread(r, "NHaystack:Worker"));
+    try
+    {
+      Context alice = new BasicContext(new BUser());
+      Context bob = new BasicContext(new BUser());
+      CountDownLatch go = new CountDownLatch(1);
+      AtomicInteger wrong = new AtomicInteger();
+      AtomicInteger ran = new AtomicInteger();
+
+      Thread caller1 = caller(pool, alice, go, wrong, ran);
+      Thread caller2 = caller(pool, bob, go, wrong, ran);
+      caller1.start();
+      caller2.start();
+      go.countDown();
+      caller1.join(30000L);
+      caller2.join(30000L);
+
+      assertEquals(ran.get(), 2 * TASKS);
+      assertEquals(wrong.get(), 0, "tasks ran with the wrong Context");
+    }
+    finally
+    {
+      pool.shutdownNow();
+    }
+  }
+
+  private static Thread caller(
+    ExecutorService pool, Context cx, CountDownLatch go, AtomicInteger wrong, AtomicInteger ran)
+  {
+    return new Thread(() ->
+    {
+      Thread thread = Thread.currentThread();
+      ThreadContext.putContext(thread, cx);
+      try
+      {
+        go.await();
+
+        List<Runnable> tasks = new ArrayList<>();
+        for (int i = 0; i < TASKS; i++)
+        {
+          tasks.add(() ->
+          {
+            for (int n = 0; n < 10; n++)
+            {
+              if (ThreadContext.getContext(Thread.currentThread()) != cx) wrong.incrementAndGet();
+              Thread.yield();
+            }
+            ran.incrementAndGet();
+          });
+        }
+        NHServer.runParallel(pool, tasks);
+      }
+      catch (InterruptedException e)
+      {
+        Thread.currentThread().interrupt();
+      }
+      finally
+      {
+        ThreadContext.removeContext(thread);
+      }
+    }, "NHaystack:Caller");
+  }
+
+  private static final int TASKS = 50;
+}